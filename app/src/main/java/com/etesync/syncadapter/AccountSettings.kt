@@ -90,6 +90,21 @@ constructor(internal val context: Context, internal val account: Account) {
         get() = accountManager.getUserData(account, KEY_MANAGE_CALENDAR_COLORS) == null
         set(manage) = accountManager.setUserData(account, KEY_MANAGE_CALENDAR_COLORS, if (manage) null else "0")
 
+    var timeRangePastDays: Int?
+        get() {
+            val days = accountManager.getUserData(account, KEY_TIME_RANGE_PAST_DAYS)?.toIntOrNull()
+            return if (days != null && days >= 0) days else null
+        }
+        set(days) = accountManager.setUserData(account, KEY_TIME_RANGE_PAST_DAYS, days?.toString())
+
+    var syncParallelism: Int
+        get() = accountManager.getUserData(account, KEY_SYNC_PARALLELISM)?.toIntOrNull() ?: DEFAULT_SYNC_PARALLELISM
+        set(parallelism) = accountManager.setUserData(account, KEY_SYNC_PARALLELISM, parallelism.toString())
+
+    var syncPageBytes: Long
+        get() = accountManager.getUserData(account, KEY_SYNC_PAGE_BYTES)?.toLongOrNull() ?: DEFAULT_SYNC_PAGE_BYTES
+        set(bytes) = accountManager.setUserData(account, KEY_SYNC_PAGE_BYTES, bytes.toString())
+
 
     // CardDAV settings
 
@@ -232,12 +247,14 @@ constructor(internal val context: Context, internal val account: Account) {
 
         /**
          * Time range limitation to the past [in days]
-         * value = null            default value (DEFAULT_TIME_RANGE_PAST_DAYS)
+         * value = null (not existing)     no limit (default)
          * < 0 (-1)          no limit
-         * >= 0              entries more than n days in the past won't be synchronized
+         * >= 0              events that ended more than n days in the past are kept in the local cache,
+         *                   but not in the calendar provider
          */
         private val KEY_TIME_RANGE_PAST_DAYS = "time_range_past_days"
-        private val DEFAULT_TIME_RANGE_PAST_DAYS = 90
+        /** suggested when enabling the time range limitation */
+        val DEFAULT_TIME_RANGE_PAST_DAYS = 90
 
         /* Whether DAVdroid sets the local calendar color to the value from service DB at every sync
        value = null (not existing)     true (default)
@@ -251,6 +268,22 @@ constructor(internal val context: Context, internal val account: Account) {
          */
         private val KEY_CONTACT_GROUP_METHOD = "contact_group_method"
 
+        /**
+         * How many calendars/task lists of the account are synced at the same time
+         * value = null (not existing)     DEFAULT_SYNC_PARALLELISM
+         * <= 1                    one after the other
+         */
+        private val KEY_SYNC_PARALLELISM = "sync_parallelism"
+        private val DEFAULT_SYNC_PARALLELISM = 3
+
+        /**
+         * Upper bound for the size of a fetched or pushed page, in bytes; the number of items per page is
+         * adapted within it
+         * value = null (not existing)     DEFAULT_SYNC_PAGE_BYTES
+         */
+        private val KEY_SYNC_PAGE_BYTES = "sync_page_bytes"
+        private val DEFAULT_SYNC_PAGE_BYTES = 1024L * 1024
+
         val SYNC_INTERVAL_MANUALLY: Long = -1
 
         // XXX: Workaround a bug in Android where passing a bundle to addAccountExplicitly doesn't work.
@@ -30,6 +30,7 @@ import com.etesync.syncadapter.log.Logger
 import com.etesync.syncadapter.model.*
 import com.etesync.syncadapter.resource.LocalAddressBook
 import com.etesync.syncadapter.resource.LocalCalendar
+import com.etesync.syncadapter.syncadapter.SyncStatsListeners
 import com.etesync.syncadapter.ui.AccountsActivity
 import com.etesync.syncadapter.utils.HintManager
 import com.etesync.syncadapter.utils.LanguageUtils
@@ -38,26 +39,31 @@ import com.etesync.syncadapter.utils.TaskProviderHandling
 import io.requery.Persistable
 import io.requery.android.sqlite.DatabaseSource
 import io.requery.meta.EntityModel
+import io.requery.sql.ConfigurationBuilder
 import io.requery.sql.EntityDataStore
 import org.acra.ACRA
 import org.jetbrains.anko.doAsync
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 
 
 class App : Application() {
     /**
-     * @return [EntityDataStore] single instance for the application.
+     * @return [EntityDataStore] single instance for the application, created on first use.
      *
      *
      * Note if you're using Dagger you can make this part of your application level module returning
      * `@Provides @Singleton`.
      */
     // override onUpgrade to handle migrating to a new version
-    val data: MyEntityDataStore
-        get() = initDataStore()
+    val data: MyEntityDataStore by lazy { initDataStore() }
+
+    private fun initDataStore(): MyEntityDataStore {
+        val count = dataStoreCreations.incrementAndGet()
+        Logger.log.info("Creating entity data store (#$count in this process)")
 
-    fun initDataStore(): MyEntityDataStore {
         val source = MyDatabaseSource(this, Models.DEFAULT, 6)
+        source.setWriteAheadLoggingEnabled(true)
         val configuration = source.configuration
         return MyEntityDataStore(configuration)
     }
@@ -71,6 +77,8 @@ class App : Application() {
 
         NotificationUtils.createChannels(this)
 
+        SyncStatsListeners.add(SyncHistory.Recorder(this))
+
         appName = getString(R.string.app_name)
         accountType = getString(R.string.account_type)
         addressBookAccountType = getString(R.string.account_type_address_book)
@@ -122,6 +130,11 @@ class App : Application() {
 
     private class MyDatabaseSource internal constructor(context: Context, entityModel: EntityModel, version: Int) : DatabaseSource(context, entityModel, version) {
 
+        override fun onConfigure(builder: ConfigurationBuilder) {
+            super.onConfigure(builder)
+            builder.setStatementCacheSize(STATEMENT_CACHE_SIZE)
+        }
+
         override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
             super.onUpgrade(db, oldVersion, newVersion)
 
@@ -279,5 +292,10 @@ class App : Application() {
         // update from previous account settings
 
         private val PREF_VERSION = "version"
+
+        private const val STATEMENT_CACHE_SIZE = 64
+
+        /** How many times the [EntityDataStore] was created in this process, should be at most 1 */
+        val dataStoreCreations = AtomicInteger(0)
     }
 }
@@ -1,18 +1,89 @@
 package com.etesync.syncadapter
 
 import android.content.Context
+import android.util.LruCache
 import com.etebase.client.*
 import com.etebase.client.Collection
 import com.etebase.client.exceptions.EtebaseException
 import com.etebase.client.exceptions.UrlParseException
+import com.etesync.syncadapter.log.Logger
+import com.etesync.syncadapter.model.ItemSearchIndex
 import okhttp3.OkHttpClient
 import java.io.File
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.logging.Level
+import kotlin.concurrent.read
+import kotlin.concurrent.withLock
+import kotlin.concurrent.write
 
-class EtebaseLocalCache private constructor(context: Context, username: String) {
+/**
+ * Locking: the account-level state (the collection list stoken) is guarded by an account lock, and each
+ * collection by one of a fixed set of read/write locks picked by the collection's uid. All of the methods
+ * here take the locks they need, but callers that need a sequence of calls to be atomic should wrap them
+ * with [withAccountLock], [withCollectionReadLock] or [withCollectionWriteLock].
+ *
+ * Lock ordering: the account lock may be held while taking a collection lock, but not the other way around.
+ * A write lock can't be taken while holding the read lock of the same collection.
+ */
+class EtebaseLocalCache private constructor(context: Context, private val username: String) {
     private val fsCache: FileSystemCache = FileSystemCache.create(context.filesDir.absolutePath, username)
     private val filesDir: File = File(context.filesDir, username)
     private val colsDir: File = File(filesDir, "cols")
+    private val etagsDir: File = File(filesDir, "etags")
+    private val etagIndexes: ConcurrentHashMap<String, ItemIndex> = ConcurrentHashMap()
+    private val digestsDir: File = File(filesDir, "digests")
+    private val digestIndexes: ConcurrentHashMap<String, ItemIndex> = ConcurrentHashMap()
+    private val summariesDir: File = File(filesDir, "summaries")
+    private val summaryIndexes: ConcurrentHashMap<String, ItemIndex> = ConcurrentHashMap()
+    private val outboxDir: File = File(filesDir, "outbox")
+    private val revisionsDir: File = File(filesDir, "revisions")
+    private val searchIndex = ItemSearchIndex.getInstance(context)
+
+    @PublishedApi
+    internal val accountLock = ReentrantLock()
+    private val collectionLocks = Array(COLLECTION_LOCK_STRIPES) { ReentrantReadWriteLock() }
+
+    // Decrypted collections and items, so repeated lookups don't go to disk and decrypt again
+    private val collectionMemCache = LruCache<String, CachedCollection>(MEM_CACHE_MAX_COLLECTIONS)
+    private val itemMemCache = object : LruCache<String, CachedItem>(MEM_CACHE_MAX_ITEMS_SIZE) {
+        override fun sizeOf(key: String, value: CachedItem): Int {
+            // Strings are UTF-16 in memory
+            return (key.length + value.content.length) * 2 + MEM_CACHE_ITEM_OVERHEAD
+        }
+    }
+
+    val itemMemCacheHits: Int
+        get() = itemMemCache.hitCount()
+    val itemMemCacheMisses: Int
+        get() = itemMemCache.missCount()
+    val collectionMemCacheHits: Int
+        get() = collectionMemCache.hitCount()
+    val collectionMemCacheMisses: Int
+        get() = collectionMemCache.missCount()
+
+    @PublishedApi
+    internal fun collectionLock(colUid: String): ReentrantReadWriteLock {
+        return collectionLocks[(colUid.hashCode() and Int.MAX_VALUE) % collectionLocks.size]
+    }
+
+    inline fun <T> withAccountLock(block: () -> T): T {
+        return accountLock.withLock(block)
+    }
+
+    inline fun <T> withCollectionReadLock(colUid: String, block: () -> T): T {
+        return collectionLock(colUid).read(block)
+    }
+
+    inline fun <T> withCollectionWriteLock(colUid: String, block: () -> T): T {
+        return collectionLock(colUid).write(block)
+    }
+
+    private fun itemMemCacheKey(colUid: String, itemUid: String): String {
+        return "$colUid/$itemUid"
+    }
 
     private fun getCollectionItemsDir(colUid: String): File {
         val colsDir = File(filesDir, "cols")
@@ -21,80 +92,486 @@ class EtebaseLocalCache private constructor(context: Context, username: String)
     }
 
     private fun clearUserCache() {
-        fsCache.clearUserCache()
+        accountLock.withLock {
+            val locked = ArrayList<ReentrantReadWriteLock.WriteLock>()
+            try {
+                for (lock in collectionLocks) {
+                    lock.writeLock().lock()
+                    locked.add(lock.writeLock())
+                }
+
+                fsCache.clearUserCache()
+                collectionMemCache.evictAll()
+                itemMemCache.evictAll()
+                etagIndexes.clear()
+                etagsDir.deleteRecursively()
+                digestIndexes.clear()
+                digestsDir.deleteRecursively()
+                summaryIndexes.clear()
+                summariesDir.deleteRecursively()
+                outboxDir.deleteRecursively()
+                revisionsDir.deleteRecursively()
+                clearSearchIndex(null)
+            } finally {
+                for (lock in locked.asReversed()) {
+                    lock.unlock()
+                }
+            }
+        }
+    }
+
+    private fun getEtagIndex(itemMgr: ItemManager, colUid: String): ItemIndex {
+        val cached = etagIndexes.get(colUid)
+        if (cached != null) {
+            return cached
+        }
+
+        // Only reached once per collection, but may be called with just the read lock held
+        synchronized(etagIndexes) {
+            return etagIndexes.get(colUid) ?: loadEtagIndex(itemMgr, colUid)
+        }
+    }
+
+    private fun loadEtagIndex(itemMgr: ItemManager, colUid: String): ItemIndex {
+        etagsDir.mkdirs()
+        val file = File(etagsDir, colUid)
+        val isNew = !file.exists()
+        val ret = ItemIndex(file)
+        if (isNew) {
+            // Caches from before the index existed: build it once from the cached items
+            val items = try {
+                fsCache._unstable_itemList(itemMgr, colUid)
+            } catch (e: EtebaseException) {
+                emptyList<Item>()
+            }
+            ret.setAll(items.associate { it.uid to it.etag })
+        }
+        etagIndexes.set(colUid, ret)
+        return ret
+    }
+
+    private fun getDigestIndex(colUid: String): ItemIndex {
+        val cached = digestIndexes.get(colUid)
+        if (cached != null) {
+            return cached
+        }
+
+        synchronized(digestIndexes) {
+            digestIndexes.get(colUid)?.let { return it }
+
+            digestsDir.mkdirs()
+            val ret = ItemIndex(File(digestsDir, colUid))
+            digestIndexes.set(colUid, ret)
+            return ret
+        }
+    }
+
+    /**
+     * Returns the summary index of the collection, or null if it wasn't built yet, see [buildSummaryIndex].
+     */
+    private fun getSummaryIndex(colUid: String): ItemIndex? {
+        val cached = summaryIndexes.get(colUid)
+        if (cached != null) {
+            return cached
+        }
+
+        synchronized(summaryIndexes) {
+            summaryIndexes.get(colUid)?.let { return it }
+
+            val file = File(summariesDir, colUid)
+            if (!file.exists()) {
+                return null
+            }
+            val ret = ItemIndex(file)
+            summaryIndexes.set(colUid, ret)
+            return ret
+        }
+    }
+
+    /**
+     * Builds the summary index of caches from before the index existed, and returns its entries. That decrypts
+     * the whole collection, so it's done without holding the collection's lock but for reading each item, and
+     * the items that changed in the meantime are redone under the write lock when the index is saved.
+     */
+    private fun buildSummaryIndex(itemMgr: ItemManager, colUid: String): Map<String, String> {
+        val etags = collectionLock(colUid).read {
+            getEtagIndex(itemMgr, colUid).entries()
+        }
+        // uid -> etag and summary
+        val built = HashMap<String, Pair<String, String>>()
+        for (itemUid in etags.keys) {
+            val item = collectionLock(colUid).read { cachedItem(itemMgr, colUid, itemUid) } ?: continue
+            built[itemUid] = Pair(item.etag, ItemSummary.fromItem(item, itemContent(item)).toValue())
+        }
+
+        return collectionLock(colUid).write {
+            getSummaryIndex(colUid)?.let { return it.entries() }
+            if (!getCollectionItemsDir(colUid).exists()) {
+                // Removed in the meantime
+                return emptyMap()
+            }
+
+            val values = HashMap<String, String>()
+            for ((itemUid, etag) in getEtagIndex(itemMgr, colUid).entries()) {
+                val summary = built[itemUid]
+                if (summary != null && summary.first == etag) {
+                    values[itemUid] = summary.second
+                } else {
+                    val item = cachedItem(itemMgr, colUid, itemUid) ?: continue
+                    values[itemUid] = ItemSummary.fromItem(item, itemContent(item)).toValue()
+                }
+            }
+
+            newSummaryIndex(colUid, values)
+            values
+        }
+    }
+
+    private fun newSummaryIndex(colUid: String, values: Map<String, String>): ItemIndex {
+        summariesDir.mkdirs()
+        val ret = ItemIndex(File(summariesDir, colUid))
+        ret.setAll(values)
+        synchronized(summaryIndexes) {
+            summaryIndexes.set(colUid, ret)
+        }
+        return ret
+    }
+
+    private fun cachedItem(itemMgr: ItemManager, colUid: String, itemUid: String): Item? {
+        return try {
+            fsCache.itemGet(itemMgr, colUid, itemUid)
+        } catch (e: EtebaseException) {
+            null
+        }
+    }
+
+    /**
+     * The outbox of the items of the collection that are being pushed, only to be used with the collection's
+     * write lock held.
+     */
+    fun getPushOutbox(colUid: String): PushOutbox {
+        return PushOutbox(File(outboxDir, colUid))
+    }
+
+    /**
+     * The cached revisions of the collection's items, only to be used with the collection's lock held (the write
+     * lock for saving).
+     */
+    fun getRevisionCache(colUid: String): ItemRevisionCache {
+        return ItemRevisionCache(File(revisionsDir, colUid))
     }
 
     fun saveStoken(stoken: String) {
-        fsCache.saveStoken(stoken)
+        accountLock.withLock {
+            fsCache.saveStoken(stoken)
+        }
     }
 
     fun loadStoken(): String? {
-        return fsCache.loadStoken()
+        return accountLock.withLock {
+            fsCache.loadStoken()
+        }
     }
 
     fun collectionSaveStoken(colUid: String, stoken: String) {
-        fsCache.collectionSaveStoken(colUid, stoken)
+        collectionLock(colUid).write {
+            fsCache.collectionSaveStoken(colUid, stoken)
+        }
     }
 
     fun collectionLoadStoken(colUid: String): String? {
-        return fsCache.collectionLoadStoken(colUid)
+        return collectionLock(colUid).read {
+            fsCache.collectionLoadStoken(colUid)
+        }
     }
 
-    fun collectionList(colMgr: CollectionManager, withDeleted: Boolean = false): List<CachedCollection> {
-        return fsCache._unstable_collectionList(colMgr).filter {
-            withDeleted || !it.isDeleted
-        }.map{
-            CachedCollection(it, it.meta, it.collectionType)
+    /**
+     * Reads all of the collections at once, so it takes all of the collection locks (after the account lock) and
+     * mustn't be called with a collection lock held.
+     */
+    fun collectionList(colMgr: CollectionManager, withDeleted: Boolean = false): List<CachedCollection> = accountLock.withLock {
+        val locked = ArrayList<ReentrantReadWriteLock.ReadLock>()
+        try {
+            for (lock in collectionLocks) {
+                lock.readLock().lock()
+                locked.add(lock.readLock())
+            }
+
+            // Populating the memory cache under the locks too, like collectionGet()
+            fsCache._unstable_collectionList(colMgr).filter {
+                withDeleted || !it.isDeleted
+            }.map{
+                val cached = collectionMemCache.get(it.uid)
+                if (cached != null && cached.col.etag == it.etag) {
+                    cached
+                } else {
+                    val ret = CachedCollection(it, it.meta, it.collectionType)
+                    collectionMemCache.put(it.uid, ret)
+                    ret
+                }
+            }
+        } finally {
+            for (lock in locked.asReversed()) {
+                lock.unlock()
+            }
         }
     }
 
     fun collectionGet(colMgr: CollectionManager, colUid: String): CachedCollection {
-        return fsCache.collectionGet(colMgr, colUid).let {
-            CachedCollection(it, it.meta, it.collectionType)
+        val cached = collectionMemCache.get(colUid)
+        if (cached != null) {
+            return cached
+        }
+
+        // Populate the memory cache under the lock, so we can't race an invalidation
+        return collectionLock(colUid).read {
+            fsCache.collectionGet(colMgr, colUid).let {
+                CachedCollection(it, it.meta, it.collectionType)
+            }.also {
+                collectionMemCache.put(colUid, it)
+            }
         }
     }
 
-    fun collectionSet(colMgr: CollectionManager, collection: Collection) {
+    fun collectionSet(colMgr: CollectionManager, collection: Collection) = collectionLock(collection.uid).write {
         fsCache.collectionSet(colMgr, collection)
+        collectionMemCache.remove(collection.uid)
     }
 
-    fun collectionUnset(colMgr: CollectionManager, colUid: String) {
+    fun collectionUnset(colMgr: CollectionManager, colUid: String) = collectionLock(colUid).write {
         try {
             fsCache.collectionUnset(colMgr, colUid)
         } catch (e: UrlParseException) {
             // Ignore, as it just means the file doesn't exist
         }
+        etagIndexes.remove(colUid)
+        File(etagsDir, colUid).delete()
+        digestIndexes.remove(colUid)
+        File(digestsDir, colUid).delete()
+        summaryIndexes.remove(colUid)
+        File(summariesDir, colUid).delete()
+        File(outboxDir, colUid).deleteRecursively()
+        File(revisionsDir, colUid).deleteRecursively()
+        clearSearchIndex(colUid)
+
+        collectionMemCache.remove(colUid)
+        val prefix = itemMemCacheKey(colUid, "")
+        for (key in itemMemCache.snapshot().keys) {
+            if (key.startsWith(prefix)) {
+                itemMemCache.remove(key)
+            }
+        }
     }
 
-    fun itemList(itemMgr: ItemManager, colUid: String, withDeleted: Boolean = false): List<CachedItem> {
-        return fsCache._unstable_itemList(itemMgr, colUid).filter {
+    fun itemList(itemMgr: ItemManager, colUid: String, withDeleted: Boolean = false): List<CachedItem> = collectionLock(colUid).read {
+        fsCache._unstable_itemList(itemMgr, colUid).filter {
             withDeleted || !it.isDeleted
         }.map {
-            CachedItem(it, it.meta, it.contentString)
+            val key = itemMemCacheKey(colUid, it.uid)
+            val cached = itemMemCache.get(key)
+            if (cached != null && cached.item.etag == it.etag) {
+                cached
+            } else {
+                val ret = CachedItem(it, it.meta, it.contentString)
+                itemMemCache.put(key, ret)
+                ret
+            }
         }
     }
 
+    /**
+     * Like [itemList], but only decrypts the metadata of the items, their content is decrypted when first used.
+     * Meant for listing large collections, the items aren't added to the memory cache.
+     */
+    fun itemListMetadata(itemMgr: ItemManager, colUid: String, withDeleted: Boolean = false): List<CachedItem> = collectionLock(colUid).read {
+        fsCache._unstable_itemList(itemMgr, colUid).filter {
+            withDeleted || !it.isDeleted
+        }.map {
+            val cached = itemMemCache.get(itemMemCacheKey(colUid, it.uid))
+            if (cached != null && cached.item.etag == it.etag) {
+                cached
+            } else {
+                CachedItem(it, it.meta)
+            }
+        }
+    }
+
+    /**
+     * Returns what the entries list shows of the collection's cached items, including the deleted ones, most
+     * recently modified first. Comes from an index kept up to date by [itemSet], so it doesn't decrypt anything
+     * but once for caches from before the index existed.
+     */
+    fun itemSummaryList(itemMgr: ItemManager, colUid: String): List<ItemSummary> {
+        val entries = collectionLock(colUid).read { getSummaryIndex(colUid)?.entries() }
+                ?: buildSummaryIndex(itemMgr, colUid)
+        return entries.map { (uid, value) ->
+            ItemSummary.fromValue(uid, value)
+        }.sortedByDescending { it.mtime }
+    }
+
     fun itemGet(itemMgr: ItemManager, colUid: String, itemUid: String): CachedItem? {
-        // Need the try because the inner call doesn't return null on missing, but an error
-        val ret = try {
-            fsCache.itemGet(itemMgr, colUid, itemUid)
-        } catch (e: EtebaseException) {
-            return null
+        val key = itemMemCacheKey(colUid, itemUid)
+        val cached = itemMemCache.get(key)
+        if (cached != null) {
+            // Don't hand out an entry that an update raced past
+            if (cached.item.etag == itemGetEtag(itemMgr, colUid, itemUid)) {
+                return cached
+            }
+            itemMemCache.remove(key)
         }
-        return ret.let {
-            CachedItem(it, it.meta, it.contentString)
+
+        return collectionLock(colUid).read {
+            // Need the try because the inner call doesn't return null on missing, but an error
+            val ret = try {
+                fsCache.itemGet(itemMgr, colUid, itemUid)
+            } catch (e: EtebaseException) {
+                return null
+            }
+            ret.let {
+                CachedItem(it, it.meta, it.contentString)
+            }.also {
+                itemMemCache.put(key, it)
+            }
         }
     }
 
-    fun itemSet(itemMgr: ItemManager, colUid: String, item: Item) {
-        fsCache.itemSet(itemMgr, colUid, item)
+    /**
+     * Returns the etag of the cached item, or null if it's not in the cache. Unlike [itemGet] this
+     * doesn't read or decrypt the item itself.
+     */
+    fun itemGetEtag(itemMgr: ItemManager, colUid: String, itemUid: String): String? = collectionLock(colUid).read {
+        getEtagIndex(itemMgr, colUid).get(itemUid)
+    }
+
+    /**
+     * Returns the size of the cached (encrypted) item on disk, or 0 if it's not in the cache. Only a stat, so
+     * cheap enough to be used for measuring what we fetched.
+     */
+    fun itemCachedSize(colUid: String, itemUid: String): Long {
+        return File(getCollectionItemsDir(colUid), itemUid).length()
+    }
+
+    /**
+     * Returns the digest of the local content the cached item was last uploaded from, or null if it's unknown
+     * (e.g. because the item was changed remotely since).
+     */
+    fun itemGetContentDigest(colUid: String, itemUid: String): String? = collectionLock(colUid).read {
+        getDigestIndex(colUid).get(itemUid)
+    }
+
+    /**
+     * @param contentDigest digest of the local content [item] was created from, see [itemGetContentDigest]
+     * @param content the decrypted content of [item] for the summary and search indexes, only decrypted here if
+     * the caller doesn't have it already
+     */
+    fun itemSet(itemMgr: ItemManager, colUid: String, item: Item, contentDigest: String? = null,
+                content: String? = itemContent(item)) {
+        itemSetAll(itemMgr, colUid, listOf(item), mapOf(item.uid to content),
+                if (contentDigest != null) mapOf(item.uid to contentDigest) else emptyMap())
+    }
+
+    /**
+     * Like [itemSet] for a page of items, with a single update of each of the indexes for all of them.
+     *
+     * @param contents the decrypted contents of the items by uid, the ones missing are decrypted here
+     * @param contentDigests digests of the local contents of the items by uid, see [itemSet]
+     */
+    fun itemSetAll(itemMgr: ItemManager, colUid: String, items: List<Item>, contents: Map<String, String?>,
+                   contentDigests: Map<String, String> = emptyMap()) = collectionLock(colUid).write {
+        val etags = HashMap<String, String?>()
+        val summaries = HashMap<String, String?>()
+        val digests = HashMap<String, String?>()
+        val texts = HashMap<String, String?>()
+        // Only kept up to date once it's built (see itemSummaryList()), which for an empty cache is right away
+        val summaryIndex = getSummaryIndex(colUid) ?: if (getEtagIndex(itemMgr, colUid).isEmpty()) newSummaryIndex(colUid, emptyMap()) else null
+        for (item in items) {
+            val content = if (contents.containsKey(item.uid)) contents[item.uid] else itemContent(item)
+            fsCache.itemSet(itemMgr, colUid, item)
+            itemMemCache.remove(itemMemCacheKey(colUid, item.uid))
+            etags[item.uid] = item.etag
+            if (summaryIndex != null) {
+                summaries[item.uid] = ItemSummary.fromItem(item, content).toValue()
+            }
+            digests[item.uid] = contentDigests[item.uid]
+            texts[item.uid] = if (content != null && !item.isDeleted) ItemSearchIndex.searchText(content) else null
+        }
+        getEtagIndex(itemMgr, colUid).update(etags)
+        summaryIndex?.update(summaries)
+        getDigestIndex(colUid).update(digests)
+        updateSearchIndex(colUid, texts)
     }
 
-    fun itemUnset(itemMgr: ItemManager, colUid: String, itemUid: String) {
+    fun itemUnset(itemMgr: ItemManager, colUid: String, itemUid: String) = collectionLock(colUid).write {
         fsCache.itemUnset(itemMgr, colUid, itemUid)
+        itemMemCache.remove(itemMemCacheKey(colUid, itemUid))
+        getEtagIndex(itemMgr, colUid).unset(itemUid)
+        getDigestIndex(colUid).unset(itemUid)
+        getSummaryIndex(colUid)?.unset(itemUid)
+        updateSearchIndex(colUid, mapOf(itemUid to null))
+        File(File(revisionsDir, colUid), itemUid).delete()
+    }
+
+    /**
+     * Returns the uids of the collection's cached items matching [query], see [ItemSearchIndex.search]. Builds
+     * the collection's search index from the cache first if it doesn't exist yet.
+     */
+    fun itemSearch(itemMgr: ItemManager, colUid: String, query: String): Set<String> {
+        if (!searchIndex.isIndexed(username, colUid)) {
+            collectionLock(colUid).read {
+                val items = try {
+                    fsCache._unstable_itemList(itemMgr, colUid)
+                } catch (e: EtebaseException) {
+                    emptyList<Item>()
+                }
+                val texts = HashMap<String, String>()
+                for (item in items) {
+                    val content = itemContent(item)
+                    if (content != null && !item.isDeleted) {
+                        texts[item.uid] = ItemSearchIndex.searchText(content)
+                    }
+                }
+                searchIndex.rebuild(username, colUid, texts)
+            }
+        }
+        return searchIndex.search(username, colUid, query)
+    }
+
+    /**
+     * The search index is only a convenience, so failing to update it shouldn't fail the sync. The collection's
+     * index is dropped instead, and rebuilt from the cache by the next [itemSearch].
+     */
+    private fun updateSearchIndex(colUid: String, texts: Map<String, String?>) {
+        try {
+            searchIndex.setAll(username, colUid, texts)
+        } catch (e: Exception) {
+            Logger.log.log(Level.WARNING, "Failed updating the search index of $colUid", e)
+            clearSearchIndex(colUid)
+        }
+    }
+
+    private fun clearSearchIndex(colUid: String?) {
+        try {
+            searchIndex.clear(username, colUid)
+        } catch (e: Exception) {
+            Logger.log.log(Level.WARNING, "Failed clearing the search index", e)
+        }
+    }
+
+    private fun itemContent(item: Item): String? {
+        return try {
+            item.contentString
+        } catch (e: EtebaseException) {
+            null
+        }
     }
 
     companion object {
+        private const val MEM_CACHE_MAX_COLLECTIONS = 100
+        /** max. size of the decrypted items kept in memory (4 MB), per account */
+        private const val MEM_CACHE_MAX_ITEMS_SIZE = 4 * 1024 * 1024
+        private const val MEM_CACHE_ITEM_OVERHEAD = 256
+        private const val COLLECTION_LOCK_STRIPES = 16
+
         private val localCacheCache: HashMap<String, EtebaseLocalCache> = HashMap()
 
         fun getInstance(context: Context, username: String): EtebaseLocalCache {
@@ -114,16 +591,182 @@ class EtebaseLocalCache private constructor(context: Context, username: String)
             val localCache = getInstance(context, username)
             localCache.clearUserCache()
             localCacheCache.remove(username)
+            invalidateEtebase(username)
         }
 
-        // FIXME: If we ever cache this we need to cache bust on changePassword
         fun getEtebase(context: Context, httpClient: OkHttpClient, settings: AccountSettings): Account {
             val client = Client.create(httpClient, settings.uri?.toString())
             return Account.restore(client, settings.etebaseSession!!, null)
         }
+
+        private class CachedEtebase(val httpClient: OkHttpClient, val session: String, val etebase: Account)
+
+        private val etebaseCache: HashMap<String, CachedEtebase> = HashMap()
+
+        /**
+         * Like the above, but using the account's shared background [HttpClient], and reusing the restored
+         * [Account] as long as neither the client nor the session (e.g. after a password change) changed.
+         */
+        fun getEtebase(context: Context, settings: AccountSettings): Account {
+            val httpClient = HttpClient.getBackgroundClient(context, settings).okHttpClient
+            val session = settings.etebaseSession!!
+            val username = settings.account.name
+            synchronized(etebaseCache) {
+                val cached = etebaseCache.get(username)
+                if (cached != null && cached.httpClient === httpClient && cached.session == session) {
+                    return cached.etebase
+                }
+
+                val ret = getEtebase(context, httpClient, settings)
+                etebaseCache.set(username, CachedEtebase(httpClient, session, ret))
+                return ret
+            }
+        }
+
+        fun invalidateEtebase(username: String) {
+            synchronized(etebaseCache) {
+                etebaseCache.remove(username)
+            }
+        }
+    }
+}
+
+/**
+ * What the entries list shows of a cached item: its title (the first SUMMARY of events and tasks, or the FN of
+ * contacts), modification time and whether it's deleted.
+ */
+class ItemSummary(val uid: String, val title: String?, val mtime: Long, val isDeleted: Boolean) {
+    internal fun toValue(): String {
+        return "$mtime ${if (isDeleted) 1 else 0} ${title ?: ""}"
+    }
+
+    companion object {
+        internal fun fromValue(uid: String, value: String): ItemSummary {
+            val parts = value.split(' ', limit = 3)
+            return ItemSummary(uid, parts.getOrNull(2)?.ifEmpty { null }, parts[0].toLongOrNull() ?: 0,
+                    parts.getOrNull(1) == "1")
+        }
+
+        internal fun fromItem(item: Item, content: String?): ItemSummary {
+            return ItemSummary(item.uid, content?.let { title(it) }, item.meta.mtime ?: 0, item.isDeleted)
+        }
+
+        fun title(content: String): String? {
+            val prefix = if (content.contains("BEGIN:VCARD")) "FN:" else "SUMMARY:"
+            val start = content.indexOf(prefix)
+            if (start < 0) {
+                return null
+            }
+            var end = content.indexOf('\n', start)
+            if (end < 0) {
+                end = content.length
+            }
+            return content.substring(start + prefix.length, end).trimEnd('\r')
+        }
+    }
+}
+
+/**
+ * On-disk map of item uid -> value (etag, content digest or summary) for a single collection, kept as an
+ * append-only log where each line is either "uid value" or just "uid" for a removed item. The log is compacted
+ * when loaded if it's mostly stale. Values can't contain newlines.
+ */
+internal class ItemIndex(private val file: File) {
+    private val values: HashMap<String, String> = HashMap()
+
+    init {
+        var lines = 0
+        if (file.exists()) {
+            file.forEachLine { line ->
+                val parts = line.split(' ', limit = 2)
+                if (parts.size == 2) {
+                    values.set(parts[0], parts[1])
+                } else {
+                    values.remove(parts[0])
+                }
+                lines++
+            }
+        }
+
+        if (lines > values.size * 2 + COMPACT_SLACK) {
+            write()
+        }
+    }
+
+    fun get(itemUid: String): String? {
+        return values.get(itemUid)
+    }
+
+    fun set(itemUid: String, value: String) {
+        if (values.get(itemUid) != value) {
+            values.set(itemUid, value)
+            append("$itemUid $value")
+        }
+    }
+
+    fun unset(itemUid: String) {
+        if (values.remove(itemUid) != null) {
+            append(itemUid)
+        }
+    }
+
+    fun isEmpty(): Boolean {
+        return values.isEmpty()
+    }
+
+    fun entries(): Map<String, String> {
+        return HashMap(values)
+    }
+
+    /**
+     * Sets, or for null values unsets, the values of [changes], appending them to the file all at once.
+     */
+    fun update(changes: Map<String, String?>) {
+        val lines = StringBuilder()
+        for ((itemUid, value) in changes) {
+            if (value != null) {
+                if (values.put(itemUid, value) != value) {
+                    lines.append(itemUid).append(' ').append(value).append('\n')
+                }
+            } else if (values.remove(itemUid) != null) {
+                lines.append(itemUid).append('\n')
+            }
+        }
+        if (lines.isNotEmpty()) {
+            file.appendText(lines.toString())
+        }
+    }
+
+    fun setAll(values: Map<String, String>) {
+        this.values.putAll(values)
+        write()
+    }
+
+    private fun append(line: String) {
+        file.appendText(line + "\n")
+    }
+
+    private fun write() {
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        tmp.bufferedWriter().use { writer ->
+            for ((uid, value) in values) {
+                writer.write("$uid $value\n")
+            }
+        }
+        tmp.renameTo(file)
+    }
+
+    companion object {
+        private const val COMPACT_SLACK = 100
     }
 }
 
 data class CachedCollection(val col: Collection, val meta: ItemMetadata, val collectionType: String)
 
-data class CachedItem(val item: Item, val meta: ItemMetadata, val content: String)
\ No newline at end of file
+/**
+ * A cached item and its decrypted metadata. The content is decrypted on first use unless it's passed in, see
+ * [EtebaseLocalCache.itemListMetadata].
+ */
+class CachedItem(val item: Item, val meta: ItemMetadata, content: String? = null) {
+    val content: String by lazy { content ?: item.contentString }
+}
\ No newline at end of file
@@ -53,6 +53,111 @@ class HttpClient private constructor(
                 .addNetworkInterceptor(UserAgentInterceptor)
 
                 .build()
+
+        private val backgroundClients = HashMap<String, Pair<String, HttpClient>>()
+
+        /** Clients dropped from the registry, closed once nothing uses the background clients anymore */
+        private val retiredClients = LinkedList<HttpClient>()
+        /** Number of running [useBackgroundClients] blocks */
+        private var backgroundUsers = 0
+
+        /**
+         * Returns a long-lived background [HttpClient] for the account, so the connection pool and TLS sessions
+         * are reused across collections and sync runs. It's owned by the registry and mustn't be closed by the
+         * caller, who has to be within [useBackgroundClients]. It's rebuilt when the account's server or token
+         * change, or after [invalidateBackgroundClients], and the replaced client is closed once all the
+         * [useBackgroundClients] blocks that may still be using it are done.
+         */
+        fun getBackgroundClient(context: Context, settings: AccountSettings): HttpClient {
+            val accountName = settings.account.name
+            val key = "${settings.uri}|${settings.authToken}"
+            synchronized(backgroundClients) {
+                val cached = backgroundClients.get(accountName)
+                if (cached != null && cached.first == key) {
+                    return cached.second
+                }
+
+                val ret = Builder(context.applicationContext, settings).setForeground(false).build()
+                backgroundClients.set(accountName, Pair(key, ret))
+                cached?.let { retire(it.second) }
+                return ret
+            }
+        }
+
+        /**
+         * Runs [block], which may use the background clients of [getBackgroundClient] and [getResourceClient],
+         * without them being closed under it.
+         */
+        fun <T> useBackgroundClients(block: () -> T): T {
+            synchronized(backgroundClients) {
+                backgroundUsers++
+            }
+            try {
+                return block()
+            } finally {
+                synchronized(backgroundClients) {
+                    backgroundUsers--
+                    closeRetiredClients()
+                }
+            }
+        }
+
+        /** Must be called with the [backgroundClients] lock held */
+        private fun retire(client: HttpClient) {
+            retiredClients.add(client)
+            closeRetiredClients()
+        }
+
+        /** Must be called with the [backgroundClients] lock held */
+        private fun closeRetiredClients() {
+            if (backgroundUsers > 0) {
+                return
+            }
+
+            for (client in retiredClients) {
+                try {
+                    client.closeRetired()
+                } catch (e: Exception) {
+                    Logger.log.log(Level.WARNING, "Couldn't close replaced HTTP client", e)
+                }
+            }
+            retiredClients.clear()
+        }
+
+        private var resourceClient: HttpClient? = null
+
+        /** The disk cache of [Builder.withDiskCache], only one instance may use the directory at a time */
+        private var diskCache: Cache? = null
+
+        /**
+         * Returns a shared, unauthenticated background [HttpClient] with a disk cache, for fetching external
+         * resources like contact photos. Like [getBackgroundClient], it mustn't be closed by the caller, who has
+         * to be within [useBackgroundClients].
+         */
+        fun getResourceClient(context: Context): HttpClient {
+            synchronized(backgroundClients) {
+                return resourceClient ?: Builder(context.applicationContext).withDiskCache().setForeground(false).build().also {
+                    resourceClient = it
+                }
+            }
+        }
+
+        /**
+         * Drops the shared background clients, e.g. after the proxy or certificate settings have changed. Like
+         * in [getBackgroundClient], they are only closed once running syncs are done with them. That includes
+         * the resource client, whose disk cache may still be in use by a download, so its replacement uses the
+         * same [Cache] instance.
+         */
+        fun invalidateBackgroundClients() {
+            synchronized(backgroundClients) {
+                val dropped = backgroundClients.values.map { it.second } + listOfNotNull(resourceClient)
+                backgroundClients.clear()
+                resourceClient = null
+                for (client in dropped) {
+                    retire(client)
+                }
+            }
+        }
     }
 
 
@@ -61,6 +166,18 @@ class HttpClient private constructor(
         certManager?.close()
     }
 
+    /**
+     * Like [close], but keeps the shared disk cache open for the client that replaces this one.
+     */
+    private fun closeRetired() {
+        okHttpClient.cache?.let { cache ->
+            if (cache !== diskCache) {
+                cache.close()
+            }
+        }
+        certManager?.close()
+    }
+
     class Builder(
             val context: Context? = null,
             accountSettings: AccountSettings? = null,
@@ -126,9 +243,14 @@ class HttpClient private constructor(
             for (dir in arrayOf(context.externalCacheDir, context.cacheDir).filterNotNull()) {
                 if (dir.exists() && dir.canWrite()) {
                     val cacheDir = File(dir, "HttpClient")
-                    cacheDir.mkdir()
-                    Logger.log.fine("Using disk cache: $cacheDir")
-                    orig.cache(Cache(cacheDir, DISK_CACHE_MAX_SIZE))
+                    val cache = synchronized(backgroundClients) {
+                        diskCache ?: Cache(cacheDir, DISK_CACHE_MAX_SIZE).also {
+                            cacheDir.mkdir()
+                            Logger.log.fine("Using disk cache: $cacheDir")
+                            diskCache = it
+                        }
+                    }
+                    orig.cache(cache)
                     break
                 }
             }
@@ -0,0 +1,61 @@
+package com.etesync.syncadapter
+
+import android.util.Base64
+import com.etebase.client.Item
+import com.etebase.client.ItemManager
+import java.io.File
+
+/**
+ * On-disk cache of the revisions of a collection's items, so the history of an item is only fetched once and
+ * then only its newer revisions. Revisions never change, so they are identified by their etag.
+ *
+ * Each item's history is kept in a file named after the item: a first line with the state ("complete", or
+ * "partial" and the iterator to continue fetching the older revisions from), followed by the serialized
+ * (still encrypted) revisions, newest first.
+ */
+class ItemRevisionCache(private val dir: File) {
+    class History(val revisions: List<Item>, val isComplete: Boolean, val iterator: String?)
+
+    fun load(itemMgr: ItemManager, itemUid: String): History {
+        val file = File(dir, itemUid)
+        if (!file.exists()) {
+            return History(emptyList(), false, null)
+        }
+
+        return try {
+            val lines = file.readLines()
+            val state = lines.first().split(' ', limit = 2)
+            val revisions = lines.drop(1).map { itemMgr.cacheLoad(Base64.decode(it, Base64.NO_WRAP)) }
+            History(revisions, state[0] == STATE_COMPLETE, state.getOrNull(1))
+        } catch (e: Exception) {
+            // Just fetched again
+            file.delete()
+            History(emptyList(), false, null)
+        }
+    }
+
+    fun save(itemMgr: ItemManager, itemUid: String, history: History) {
+        dir.mkdirs()
+        val file = File(dir, itemUid)
+        val tmp = File(dir, "$itemUid.tmp")
+        tmp.bufferedWriter().use { writer ->
+            if (history.isComplete) {
+                writer.write(STATE_COMPLETE)
+            } else {
+                writer.write(STATE_PARTIAL)
+                history.iterator?.let { writer.write(" $it") }
+            }
+            writer.write("\n")
+            for (revision in history.revisions) {
+                writer.write(Base64.encodeToString(itemMgr.cacheSaveWithContent(revision), Base64.NO_WRAP))
+                writer.write("\n")
+            }
+        }
+        tmp.renameTo(file)
+    }
+
+    companion object {
+        private const val STATE_COMPLETE = "complete"
+        private const val STATE_PARTIAL = "partial"
+    }
+}
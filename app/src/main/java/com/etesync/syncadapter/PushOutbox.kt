@@ -0,0 +1,104 @@
+package com.etesync.syncadapter
+
+import com.etebase.client.Item
+import com.etebase.client.ItemManager
+import java.io.File
+
+/**
+ * Durable record of the items of a collection that are being pushed, so a push interrupted by a crash or a
+ * failed connection can be reconciled on the next sync instead of preparing and uploading the items again.
+ *
+ * Each item is kept as "uid.item" (the serialized, already encrypted item) and "uid.state", which holds the
+ * state ([STATE_PREPARED] before the upload, [STATE_COMMITTED] once the server accepted it) and the content
+ * digest to store the item with in the [EtebaseLocalCache].
+ *
+ * Files aren't synced to disk, as losing an entry only means the item is prepared and uploaded again; entries
+ * that can't be loaded are to be dropped. Not thread safe, callers hold the collection's write lock.
+ */
+class PushOutbox(private val dir: File) {
+    inner class Entry(val itemUid: String, val committed: Boolean, val contentDigest: String?) {
+        fun load(itemMgr: ItemManager): Item {
+            return itemMgr.cacheLoad(itemFile(itemUid).readBytes())
+        }
+    }
+
+    fun isEmpty(): Boolean {
+        return !dir.exists() || dir.list { _, name -> name.endsWith(SUFFIX_STATE) }.isNullOrEmpty()
+    }
+
+    fun entries(): List<Entry> {
+        val files = dir.listFiles { _, name -> name.endsWith(SUFFIX_STATE) } ?: return emptyList()
+        return files.mapNotNull { file ->
+            val itemUid = file.name.removeSuffix(SUFFIX_STATE)
+            if (!itemFile(itemUid).exists()) {
+                return@mapNotNull null
+            }
+            val parts = file.readText().trim().split(' ')
+            Entry(itemUid, parts[0] == STATE_COMMITTED, parts.getOrNull(1))
+        }
+    }
+
+    /**
+     * Records [items] before they are uploaded.
+     */
+    fun prepare(itemMgr: ItemManager, items: List<Item>, contentDigests: Map<String, String>) {
+        for (item in items) {
+            prepare(item.uid, itemMgr.cacheSaveWithContent(item), contentDigests[item.uid])
+        }
+    }
+
+    /**
+     * Records the item with the serialized form [data] before it's uploaded. The state is written last, so
+     * there's never a state without its item.
+     */
+    internal fun prepare(itemUid: String, data: ByteArray, contentDigest: String?) {
+        dir.mkdirs()
+        writeAtomically(itemFile(itemUid), data)
+        writeState(itemUid, STATE_PREPARED, contentDigest)
+    }
+
+    /**
+     * Marks [items] as accepted by the server.
+     */
+    fun commit(items: List<Item>, contentDigests: Map<String, String>) {
+        for (item in items) {
+            commit(item.uid, contentDigests[item.uid])
+        }
+    }
+
+    internal fun commit(itemUid: String, contentDigest: String?) {
+        writeState(itemUid, STATE_COMMITTED, contentDigest)
+    }
+
+    fun remove(itemUid: String) {
+        stateFile(itemUid).delete()
+        itemFile(itemUid).delete()
+    }
+
+    private fun writeState(itemUid: String, state: String, contentDigest: String?) {
+        val line = if (contentDigest != null) "$state $contentDigest" else state
+        writeAtomically(stateFile(itemUid), line.toByteArray())
+    }
+
+    private fun writeAtomically(file: File, data: ByteArray) {
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        tmp.writeBytes(data)
+        tmp.renameTo(file)
+    }
+
+    private fun itemFile(itemUid: String): File {
+        return File(dir, itemUid + SUFFIX_ITEM)
+    }
+
+    private fun stateFile(itemUid: String): File {
+        return File(dir, itemUid + SUFFIX_STATE)
+    }
+
+    companion object {
+        private const val SUFFIX_ITEM = ".item"
+        private const val SUFFIX_STATE = ".state"
+
+        const val STATE_PREPARED = "prepared"
+        const val STATE_COMMITTED = "committed"
+    }
+}
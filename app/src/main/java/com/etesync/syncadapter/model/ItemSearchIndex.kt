@@ -0,0 +1,241 @@
+package com.etesync.syncadapter.model
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/**
+ * Full text index of the searchable fields of the cached etebase items (see [SEARCH_PROPERTIES]), kept up to date
+ * by the [com.etesync.syncadapter.EtebaseLocalCache] and rebuilt from it for collections that aren't indexed yet.
+ *
+ * The index holds decrypted content, so it's kept in the app's private database directory like the cache itself.
+ */
+class ItemSearchIndex private constructor(context: Context) {
+    object Table {
+        const val ITEMS = "items"
+        const val ITEMS_TEXT = "items_text"
+        const val COLLECTIONS = "collections"
+
+        const val ID = "_id"
+        const val ACCOUNT_NAME = "accountName"
+        const val COLLECTION_UID = "collectionUid"
+        const val ITEM_UID = "itemUid"
+        const val DOCID = "docid"
+        const val TEXT = "text"
+    }
+
+    private class OpenHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+        override fun onConfigure(db: SQLiteDatabase) {
+            setWriteAheadLoggingEnabled(true)
+        }
+
+        override fun onCreate(db: SQLiteDatabase) {
+            db.execSQL("CREATE TABLE ${Table.ITEMS}(" +
+                    "${Table.ID} INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "${Table.ACCOUNT_NAME} TEXT NOT NULL," +
+                    "${Table.COLLECTION_UID} TEXT NOT NULL," +
+                    "${Table.ITEM_UID} TEXT NOT NULL," +
+                    "UNIQUE(${Table.ACCOUNT_NAME}, ${Table.COLLECTION_UID}, ${Table.ITEM_UID})" +
+                    ")")
+            // The docid of a row is the _id of its item
+            db.execSQL("CREATE VIRTUAL TABLE ${Table.ITEMS_TEXT} USING fts4(${Table.TEXT}, tokenize=unicode61)")
+            db.execSQL("CREATE TABLE ${Table.COLLECTIONS}(" +
+                    "${Table.ACCOUNT_NAME} TEXT NOT NULL," +
+                    "${Table.COLLECTION_UID} TEXT NOT NULL," +
+                    "PRIMARY KEY(${Table.ACCOUNT_NAME}, ${Table.COLLECTION_UID})" +
+                    ")")
+        }
+
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            // no different versions yet
+        }
+    }
+
+    private val dbHelper = OpenHelper(context.applicationContext)
+
+    /**
+     * Whether the collection's index was built by [rebuild], after which [setAll] keeps it up to date.
+     */
+    fun isIndexed(accountName: String, colUid: String): Boolean {
+        dbHelper.readableDatabase.query(Table.COLLECTIONS, arrayOf(Table.COLLECTION_UID),
+                "${Table.ACCOUNT_NAME} = ? AND ${Table.COLLECTION_UID} = ?", arrayOf(accountName, colUid),
+                null, null, null).use { cursor ->
+            return cursor.moveToFirst()
+        }
+    }
+
+    /**
+     * Sets the searchable texts of the collection's items by uid, see [searchText], or removes the ones that are
+     * null. All in one transaction, so it's meant to be called once per synced page.
+     */
+    fun setAll(accountName: String, colUid: String, texts: Map<String, String?>) {
+        val db = dbHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            for ((itemUid, text) in texts) {
+                setInTransaction(db, accountName, colUid, itemUid, text)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Replaces the index of a collection with the [texts] of all of its items.
+     */
+    fun rebuild(accountName: String, colUid: String, texts: Map<String, String>) {
+        val db = dbHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            deleteCollection(db, accountName, colUid)
+            for ((itemUid, text) in texts) {
+                setInTransaction(db, accountName, colUid, itemUid, text)
+            }
+            val values = ContentValues(2)
+            values.put(Table.ACCOUNT_NAME, accountName)
+            values.put(Table.COLLECTION_UID, colUid)
+            db.insertWithOnConflict(Table.COLLECTIONS, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Removes the index of a collection, or of all of the account's collections if [colUid] is null.
+     */
+    fun clear(accountName: String, colUid: String? = null) {
+        val db = dbHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            deleteCollection(db, accountName, colUid)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Returns the uids of the collection's items that have words starting with each of the words of [query].
+     */
+    fun search(accountName: String, colUid: String, query: String): Set<String> {
+        val match = matchQuery(query) ?: return emptySet()
+
+        val ret = HashSet<String>()
+        dbHelper.readableDatabase.rawQuery("SELECT i.${Table.ITEM_UID} FROM ${Table.ITEMS_TEXT} t " +
+                "JOIN ${Table.ITEMS} i ON i.${Table.ID} = t.${Table.DOCID} " +
+                "WHERE t.${Table.TEXT} MATCH ? AND i.${Table.ACCOUNT_NAME} = ? AND i.${Table.COLLECTION_UID} = ?",
+                arrayOf(match, accountName, colUid)).use { cursor ->
+            while (cursor.moveToNext()) {
+                ret.add(cursor.getString(0))
+            }
+        }
+        return ret
+    }
+
+    private fun setInTransaction(db: SQLiteDatabase, accountName: String, colUid: String, itemUid: String, text: String?) {
+        val args = arrayOf(accountName, colUid, itemUid)
+        var id: Long? = null
+        db.query(Table.ITEMS, arrayOf(Table.ID),
+                "${Table.ACCOUNT_NAME} = ? AND ${Table.COLLECTION_UID} = ? AND ${Table.ITEM_UID} = ?", args,
+                null, null, null).use { cursor ->
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0)
+            }
+        }
+
+        if (text == null) {
+            id?.let {
+                db.delete(Table.ITEMS_TEXT, "${Table.DOCID} = ?", arrayOf(it.toString()))
+                db.delete(Table.ITEMS, "${Table.ID} = ?", arrayOf(it.toString()))
+            }
+            return
+        }
+
+        val docid = id ?: ContentValues(3).let { values ->
+            values.put(Table.ACCOUNT_NAME, accountName)
+            values.put(Table.COLLECTION_UID, colUid)
+            values.put(Table.ITEM_UID, itemUid)
+            db.insert(Table.ITEMS, null, values)
+        }
+        val values = ContentValues(2)
+        values.put(Table.DOCID, docid)
+        values.put(Table.TEXT, text)
+        db.insertWithOnConflict(Table.ITEMS_TEXT, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    private fun deleteCollection(db: SQLiteDatabase, accountName: String, colUid: String?) {
+        val selection = StringBuilder("${Table.ACCOUNT_NAME} = ?")
+        val args = arrayListOf(accountName)
+        if (colUid != null) {
+            selection.append(" AND ${Table.COLLECTION_UID} = ?")
+            args.add(colUid)
+        }
+        val argsArray = args.toTypedArray()
+
+        db.execSQL("DELETE FROM ${Table.ITEMS_TEXT} WHERE ${Table.DOCID} IN " +
+                "(SELECT ${Table.ID} FROM ${Table.ITEMS} WHERE $selection)", argsArray)
+        db.delete(Table.ITEMS, selection.toString(), argsArray)
+        db.delete(Table.COLLECTIONS, selection.toString(), argsArray)
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "item_search.db"
+        private const val DATABASE_VERSION = 1
+
+        /** the vCard and iCalendar properties that are searchable */
+        private val SEARCH_PROPERTIES = setOf("FN", "EMAIL", "TEL", "SUMMARY", "LOCATION", "DESCRIPTION")
+
+        private var instance: ItemSearchIndex? = null
+
+        fun getInstance(context: Context): ItemSearchIndex {
+            synchronized(this) {
+                return instance ?: ItemSearchIndex(context).also { instance = it }
+            }
+        }
+
+        /**
+         * Extracts the values of the [SEARCH_PROPERTIES] of a vCard or iCalendar, one per line.
+         */
+        fun searchText(content: String): String {
+            val ret = StringBuilder()
+            // Unfold the folded lines first
+            val unfolded = content.replace(Regex("\r?\n[ \t]"), "")
+            for (line in unfolded.lineSequence()) {
+                val colon = line.indexOf(':')
+                if (colon <= 0) {
+                    continue
+                }
+
+                // Strip the parameters and the vCard group (e.g. "item1.EMAIL;TYPE=work")
+                val name = line.substring(0, colon).substringBefore(';').substringAfter('.').uppercase()
+                if (name !in SEARCH_PROPERTIES) {
+                    continue
+                }
+
+                val value = line.substring(colon + 1).trimEnd('\r')
+                        .replace("\\n", " ").replace("\\N", " ")
+                        .replace("\\,", ",").replace("\\;", ";").replace("\\\\", "\\")
+                ret.append(value).append('\n')
+                if (name == "TEL") {
+                    // So numbers can be found without their separators
+                    ret.append(value.filter { it.isDigit() }).append('\n')
+                }
+            }
+            return ret.toString()
+        }
+
+        /**
+         * Turns a user's query into an FTS prefix query matching all of its words, or null if it has none.
+         */
+        private fun matchQuery(query: String): String? {
+            val words = query.split(Regex("[^\\p{L}\\p{N}]+")).filter { it.isNotEmpty() }
+            if (words.isEmpty()) {
+                return null
+            }
+            return words.joinToString(" ") { "$it*" }
+        }
+    }
+}
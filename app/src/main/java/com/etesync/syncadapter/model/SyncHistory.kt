@@ -0,0 +1,276 @@
+package com.etesync.syncadapter.model
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import com.etesync.syncadapter.BuildConfig
+import com.etesync.syncadapter.R
+import com.etesync.syncadapter.log.Logger
+import com.etesync.syncadapter.syncadapter.SyncStats
+import com.etesync.syncadapter.syncadapter.SyncStatsListener
+import java.util.logging.Level
+
+/**
+ * Persistent ledger with one row per collection sync, kept within [MAX_ROWS] rows and [MAX_AGE] old.
+ */
+class SyncHistory internal constructor(context: Context) {
+    class Entry(
+            val accountName: String,
+            val authority: String,
+            val collectionUid: String,
+            val collectionName: String?,
+            val appVersion: String,
+            val startTime: Long,
+            val endTime: Long,
+            val itemsPulled: Int,
+            val itemsPushed: Int,
+            val numInserts: Long,
+            val numUpdates: Long,
+            val numDeletes: Long,
+            val bytesIn: Long,
+            val bytesOut: Long,
+            val numIoExceptions: Long,
+            val numParseExceptions: Long,
+            val numAuthExceptions: Long,
+            /** null if the sync succeeded */
+            val error: String?
+    ) {
+        val millis: Long
+            get() = endTime - startTime
+    }
+
+    object Table {
+        const val _TABLE = "sync_history"
+        const val ID = "_id"
+        const val ACCOUNT_NAME = "accountName"
+        const val AUTHORITY = "authority"
+        const val COLLECTION_UID = "collectionUid"
+        const val COLLECTION_NAME = "collectionName"
+        const val APP_VERSION = "appVersion"
+        const val START_TIME = "startTime"
+        const val END_TIME = "endTime"
+        const val ITEMS_PULLED = "itemsPulled"
+        const val ITEMS_PUSHED = "itemsPushed"
+        const val NUM_INSERTS = "numInserts"
+        const val NUM_UPDATES = "numUpdates"
+        const val NUM_DELETES = "numDeletes"
+        const val BYTES_IN = "bytesIn"
+        const val BYTES_OUT = "bytesOut"
+        const val NUM_IO_EXCEPTIONS = "numIoExceptions"
+        const val NUM_PARSE_EXCEPTIONS = "numParseExceptions"
+        const val NUM_AUTH_EXCEPTIONS = "numAuthExceptions"
+        const val ERROR = "error"
+
+        internal val COLUMNS = arrayOf(ACCOUNT_NAME, AUTHORITY, COLLECTION_UID, COLLECTION_NAME, APP_VERSION, START_TIME,
+                END_TIME, ITEMS_PULLED, ITEMS_PUSHED, NUM_INSERTS, NUM_UPDATES, NUM_DELETES, BYTES_IN, BYTES_OUT,
+                NUM_IO_EXCEPTIONS, NUM_PARSE_EXCEPTIONS, NUM_AUTH_EXCEPTIONS, ERROR)
+    }
+
+    private class OpenHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+        override fun onConfigure(db: SQLiteDatabase) {
+            setWriteAheadLoggingEnabled(true)
+        }
+
+        override fun onCreate(db: SQLiteDatabase) {
+            db.execSQL("CREATE TABLE ${Table._TABLE}(" +
+                    "${Table.ID} INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "${Table.ACCOUNT_NAME} TEXT NOT NULL," +
+                    "${Table.AUTHORITY} TEXT NOT NULL," +
+                    "${Table.COLLECTION_UID} TEXT NOT NULL," +
+                    "${Table.COLLECTION_NAME} TEXT," +
+                    "${Table.APP_VERSION} TEXT NOT NULL," +
+                    "${Table.START_TIME} INTEGER NOT NULL," +
+                    "${Table.END_TIME} INTEGER NOT NULL," +
+                    "${Table.ITEMS_PULLED} INTEGER NOT NULL," +
+                    "${Table.ITEMS_PUSHED} INTEGER NOT NULL," +
+                    "${Table.NUM_INSERTS} INTEGER NOT NULL," +
+                    "${Table.NUM_UPDATES} INTEGER NOT NULL," +
+                    "${Table.NUM_DELETES} INTEGER NOT NULL," +
+                    "${Table.BYTES_IN} INTEGER NOT NULL," +
+                    "${Table.BYTES_OUT} INTEGER NOT NULL," +
+                    "${Table.NUM_IO_EXCEPTIONS} INTEGER NOT NULL," +
+                    "${Table.NUM_PARSE_EXCEPTIONS} INTEGER NOT NULL," +
+                    "${Table.NUM_AUTH_EXCEPTIONS} INTEGER NOT NULL," +
+                    "${Table.ERROR} TEXT" +
+                    ")")
+            db.execSQL("CREATE INDEX sync_history_collection ON ${Table._TABLE} (${Table.ACCOUNT_NAME}, ${Table.COLLECTION_UID}, ${Table.START_TIME})")
+        }
+
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            // no different versions yet
+        }
+    }
+
+    private val dbHelper = OpenHelper(context.applicationContext)
+
+    fun record(entry: Entry) {
+        val values = ContentValues(Table.COLUMNS.size)
+        values.put(Table.ACCOUNT_NAME, entry.accountName)
+        values.put(Table.AUTHORITY, entry.authority)
+        values.put(Table.COLLECTION_UID, entry.collectionUid)
+        values.put(Table.COLLECTION_NAME, entry.collectionName)
+        values.put(Table.APP_VERSION, entry.appVersion)
+        values.put(Table.START_TIME, entry.startTime)
+        values.put(Table.END_TIME, entry.endTime)
+        values.put(Table.ITEMS_PULLED, entry.itemsPulled)
+        values.put(Table.ITEMS_PUSHED, entry.itemsPushed)
+        values.put(Table.NUM_INSERTS, entry.numInserts)
+        values.put(Table.NUM_UPDATES, entry.numUpdates)
+        values.put(Table.NUM_DELETES, entry.numDeletes)
+        values.put(Table.BYTES_IN, entry.bytesIn)
+        values.put(Table.BYTES_OUT, entry.bytesOut)
+        values.put(Table.NUM_IO_EXCEPTIONS, entry.numIoExceptions)
+        values.put(Table.NUM_PARSE_EXCEPTIONS, entry.numParseExceptions)
+        values.put(Table.NUM_AUTH_EXCEPTIONS, entry.numAuthExceptions)
+        values.put(Table.ERROR, entry.error)
+
+        val db = dbHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            db.insert(Table._TABLE, null, values)
+            prune(db, entry.endTime)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun prune(db: SQLiteDatabase, now: Long) {
+        db.delete(Table._TABLE, "${Table.START_TIME} < ?", arrayOf((now - MAX_AGE).toString()))
+        db.delete(Table._TABLE, "${Table.ID} NOT IN (SELECT ${Table.ID} FROM ${Table._TABLE} ORDER BY ${Table.ID} DESC LIMIT $MAX_ROWS)", null)
+    }
+
+    /**
+     * Returns the most recent entries of the account, or only those of one of its collections, newest first.
+     */
+    fun list(accountName: String, collectionUid: String? = null): List<Entry> {
+        val selection = StringBuilder("${Table.ACCOUNT_NAME} = ?")
+        val args = arrayListOf(accountName)
+        if (collectionUid != null) {
+            selection.append(" AND ${Table.COLLECTION_UID} = ?")
+            args.add(collectionUid)
+        }
+
+        val ret = ArrayList<Entry>()
+        dbHelper.readableDatabase.query(Table._TABLE, Table.COLUMNS, selection.toString(), args.toTypedArray(),
+                null, null, "${Table.START_TIME} DESC").use { cursor ->
+            while (cursor.moveToNext()) {
+                ret.add(fromCursor(cursor))
+            }
+        }
+        return ret
+    }
+
+    fun clear(accountName: String) {
+        dbHelper.writableDatabase.delete(Table._TABLE, "${Table.ACCOUNT_NAME} = ?", arrayOf(accountName))
+    }
+
+    private fun fromCursor(cursor: Cursor): Entry {
+        return Entry(
+                accountName = cursor.getString(0),
+                authority = cursor.getString(1),
+                collectionUid = cursor.getString(2),
+                collectionName = cursor.getString(3),
+                appVersion = cursor.getString(4),
+                startTime = cursor.getLong(5),
+                endTime = cursor.getLong(6),
+                itemsPulled = cursor.getInt(7),
+                itemsPushed = cursor.getInt(8),
+                numInserts = cursor.getLong(9),
+                numUpdates = cursor.getLong(10),
+                numDeletes = cursor.getLong(11),
+                bytesIn = cursor.getLong(12),
+                bytesOut = cursor.getLong(13),
+                numIoExceptions = cursor.getLong(14),
+                numParseExceptions = cursor.getLong(15),
+                numAuthExceptions = cursor.getLong(16),
+                error = cursor.getString(17)
+        )
+    }
+
+    /**
+     * Records the stats of every finished sync.
+     */
+    class Recorder(private val context: Context) : SyncStatsListener {
+        override fun onSyncFinished(stats: SyncStats) {
+            try {
+                getInstance(context).record(entry(stats))
+            } catch (e: Exception) {
+                Logger.log.log(Level.WARNING, "Couldn't record sync history", e)
+            }
+        }
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "sync_history.db"
+        private const val DATABASE_VERSION = 1
+
+        const val MAX_ROWS = 2000
+        /** 90 days */
+        const val MAX_AGE = 90L * 24 * 60 * 60 * 1000
+
+        private var instance: SyncHistory? = null
+
+        fun getInstance(context: Context): SyncHistory {
+            synchronized(this) {
+                return instance ?: SyncHistory(context).also { instance = it }
+            }
+        }
+
+        /**
+         * The entry of a finished sync, with the inbound bytes as counted by the fetch phase (see [SyncStats.bytesIn]).
+         */
+        internal fun entry(stats: SyncStats): Entry {
+            return Entry(
+                    accountName = stats.accountName,
+                    authority = stats.authority,
+                    collectionUid = stats.collectionUid,
+                    collectionName = stats.collectionName,
+                    appVersion = BuildConfig.VERSION_NAME,
+                    startTime = stats.startTime,
+                    endTime = stats.startTime + stats.totalMillis,
+                    itemsPulled = stats.items(R.string.sync_phase_fetch_entries),
+                    itemsPushed = stats.items(R.string.sync_phase_push_entries),
+                    numInserts = stats.numInserts,
+                    numUpdates = stats.numUpdates,
+                    numDeletes = stats.numDeletes,
+                    bytesIn = stats.bytesIn,
+                    bytesOut = stats.bytesOut,
+                    numIoExceptions = stats.numIoExceptions,
+                    numParseExceptions = stats.numParseExceptions,
+                    numAuthExceptions = stats.numAuthExceptions,
+                    error = stats.error
+            )
+        }
+
+        /**
+         * Compact CSV export of [entries], one line each.
+         */
+        fun export(entries: List<Entry>): String {
+            val ret = StringBuilder()
+            ret.append("start,millis,authority,collection,version,pulled,pushed,inserts,updates,deletes,bytes_in,bytes_out,io_errors,parse_errors,auth_errors,error\n")
+            for (entry in entries) {
+                ret.append(entry.startTime).append(',')
+                        .append(entry.millis).append(',')
+                        .append(entry.authority).append(',')
+                        .append(entry.collectionUid).append(',')
+                        .append(entry.appVersion).append(',')
+                        .append(entry.itemsPulled).append(',')
+                        .append(entry.itemsPushed).append(',')
+                        .append(entry.numInserts).append(',')
+                        .append(entry.numUpdates).append(',')
+                        .append(entry.numDeletes).append(',')
+                        .append(entry.bytesIn).append(',')
+                        .append(entry.bytesOut).append(',')
+                        .append(entry.numIoExceptions).append(',')
+                        .append(entry.numParseExceptions).append(',')
+                        .append(entry.numAuthExceptions).append(',')
+                        .append(entry.error?.replace(Regex("[,\\n\\r]"), " ") ?: "")
+                        .append('\n')
+            }
+            return ret.toString()
+        }
+    }
+}
@@ -8,7 +8,10 @@
 
 package com.etesync.syncadapter.resource
 
+import at.bitfire.vcard4android.BatchOperation
 import at.bitfire.vcard4android.Contact
 
 interface LocalAddress: LocalResource<Contact> {
+    /** Like [delete], but only enqueues the operation in [batch], which has to be committed by the caller. */
+    fun deleteInBatch(batch: BatchOperation)
 }
\ No newline at end of file
@@ -360,6 +360,45 @@ class LocalAddressBook(
         }
     }
 
+    override fun buildIndex(): LocalCollectionIndex {
+        val index = LocalCollectionIndex()
+        try {
+            // Groups first, so contacts win like in findByFilename()
+            provider!!.query(groupsSyncUri(),
+                    arrayOf(Groups._ID, AndroidGroup.COLUMN_FILENAME, AndroidGroup.COLUMN_UID, AndroidGroup.COLUMN_ETAG),
+                    null, null, null)?.use { cursor ->
+                index.addAll(cursor, LocalCollectionIndex.TYPE_GROUP)
+            }
+            provider!!.query(rawContactsSyncUri(),
+                    arrayOf(RawContacts._ID, AndroidContact.COLUMN_FILENAME, AndroidContact.COLUMN_UID, AndroidContact.COLUMN_ETAG),
+                    null, null, null)?.use { cursor ->
+                index.addAll(cursor)
+            }
+        } catch (e: RemoteException) {
+            throw ContactsStorageException("Couldn't query contacts", e)
+        }
+        return index
+    }
+
+    override fun findByIndexEntry(entry: LocalCollectionIndex.Entry): LocalAddress? {
+        return if (entry.type == LocalCollectionIndex.TYPE_GROUP)
+            queryGroups("${Groups._ID}=?", arrayOf(entry.id.toString())).firstOrNull()
+        else
+            queryContacts("${RawContacts._ID}=?", arrayOf(entry.id.toString())).firstOrNull()
+    }
+
+    override fun findByIndexEntries(entries: List<LocalCollectionIndex.Entry>): Map<Long, LocalAddress> {
+        val ret = HashMap<Long, LocalAddress>()
+        val (groups, contacts) = entries.partition { it.type == LocalCollectionIndex.TYPE_GROUP }
+        if (groups.isNotEmpty()) {
+            queryGroups("${Groups._ID} IN (${groups.joinToString(",") { it.id.toString() }})", null).associateByTo(ret) { it.id!! }
+        }
+        if (contacts.isNotEmpty()) {
+            queryContacts("${RawContacts._ID} IN (${contacts.joinToString(",") { it.id.toString() }})", null).associateByTo(ret) { it.id!! }
+        }
+        return ret
+    }
+
     fun findGroupById(id: Long): LocalGroup =
             queryGroups("${Groups._ID}=?", arrayOf(id.toString())).firstOrNull()
                     ?: throw FileNotFoundException()
@@ -390,7 +429,10 @@ class LocalAddressBook(
 
 
     /* special group operations */
-    fun getByGroupMembership(groupID: Long): List<LocalContact> {
+    /**
+     * Returns the ids of the raw contacts with a membership or cached membership in the given group.
+     */
+    fun getIdsByGroupMembership(groupID: Long): Set<Long> {
         val ids = HashSet<Long>()
         provider!!.query(syncAdapterURI(ContactsContract.Data.CONTENT_URI),
                 arrayOf(RawContacts.Data.RAW_CONTACT_ID),
@@ -401,7 +443,21 @@ class LocalAddressBook(
                 ids += cursor.getLong(0)
         }
 
-        return ids.map { findContactByID(it) }
+        return ids
+    }
+
+    /**
+     * Maps the UIDs of all the (not deleted) contacts to their raw contact ids, in one query and without loading them.
+     */
+    fun getContactIdsByUid(): Map<String, Long> {
+        val ids = HashMap<String, Long>()
+        provider!!.query(rawContactsSyncUri(),
+                arrayOf(RawContacts._ID, AndroidContact.COLUMN_UID),
+                "${AndroidContact.COLUMN_UID} IS NOT NULL AND ${RawContacts.DELETED}=0", null, null)?.use { cursor ->
+            while (cursor.moveToNext())
+                ids[cursor.getString(1)] = cursor.getLong(0)
+        }
+        return ids
     }
 
 
@@ -50,6 +50,8 @@ class LocalCalendar private constructor(
         }
 
         val COLUMN_CTAG = Calendars.CAL_SYNC1
+        /** the time range (past days) the events in the provider were last synced for, null if not limited */
+        val COLUMN_TIME_RANGE_PAST_DAYS = Calendars.CAL_SYNC2
 
         fun create(account: Account, provider: ContentProviderClient, journalEntity: JournalEntity): Uri {
             val values = valuesFromCollectionInfo(journalEntity, true)
@@ -152,6 +154,51 @@ class LocalCalendar private constructor(
             update(valuesFromCachedCollection(cachedCollection, updateColor))
 
 
+    var timeRangePastDays: Int?
+        get() {
+            provider.query(syncAdapterURI(ContentUris.withAppendedId(Calendars.CONTENT_URI, id)),
+                    arrayOf(COLUMN_TIME_RANGE_PAST_DAYS), null, null, null)?.use { cursor ->
+                if (cursor.moveToNext() && !cursor.isNull(0)) {
+                    return cursor.getInt(0)
+                }
+            }
+            return null
+        }
+        set(days) {
+            val values = ContentValues(1)
+            values.put(COLUMN_TIME_RANGE_PAST_DAYS, days)
+            update(values)
+        }
+
+    /**
+     * Removes the events (and their exceptions) that ended before [start] and aren't dirty from the provider,
+     * without marking them as deleted.
+     * @return number of removed events
+     */
+    fun evictEndedBefore(start: Long): Int {
+        val ids = LinkedList<Long>()
+        try {
+            provider.query(syncAdapterURI(Events.CONTENT_URI), arrayOf(Events._ID),
+                    "${Events.CALENDAR_ID}=? AND ${Events.ORIGINAL_ID} IS NULL AND ${Events.DIRTY}=0 AND ${Events.LAST_DATE} IS NOT NULL AND ${Events.LAST_DATE}<?",
+                    arrayOf(id.toString(), start.toString()), null)?.use { cursor ->
+                while (cursor.moveToNext()) {
+                    ids += cursor.getLong(0)
+                }
+            }
+
+            val batch = BatchOperation(provider)
+            for (eventId in ids) {
+                batch.enqueue(BatchOperation.CpoBuilder.newDelete(syncAdapterURI(Events.CONTENT_URI))
+                        .withSelection("${Events.ORIGINAL_ID}=?", arrayOf(eventId.toString())))
+                batch.enqueue(BatchOperation.CpoBuilder.newDelete(syncAdapterURI(ContentUris.withAppendedId(Events.CONTENT_URI, eventId))))
+            }
+            batch.commit()
+        } catch (e: RemoteException) {
+            throw CalendarStorageException("Couldn't evict calendar events", e)
+        }
+        return ids.size
+    }
+
     override fun findDeleted() =
             queryEvents("${Events.DELETED}!=0 AND ${Events.ORIGINAL_ID} IS NULL", null)
 
@@ -185,6 +232,26 @@ class LocalCalendar private constructor(
     override fun findByFilename(filename: String): LocalEvent?
         = queryEvents(Events._SYNC_ID + " =? ", arrayOf(filename)).firstOrNull()
 
+    override fun buildIndex(): LocalCollectionIndex {
+        val index = LocalCollectionIndex()
+        try {
+            provider.query(syncAdapterURI(Events.CONTENT_URI),
+                    arrayOf(Events._ID, Events._SYNC_ID, COLUMN_UID, LocalEvent.COLUMN_ETAG),
+                    Events.CALENDAR_ID + "=? AND " + Events.ORIGINAL_ID + " IS NULL", arrayOf(id.toString()), null)?.use { cursor ->
+                index.addAll(cursor)
+            }
+        } catch (e: RemoteException) {
+            throw CalendarStorageException("Couldn't query calendar events", e)
+        }
+        return index
+    }
+
+    override fun findByIndexEntry(entry: LocalCollectionIndex.Entry): LocalEvent?
+        = queryEvents(Events._ID + " =? ", arrayOf(entry.id.toString())).firstOrNull()
+
+    override fun findByIndexEntries(entries: List<LocalCollectionIndex.Entry>): Map<Long, LocalEvent>
+        = queryEvents(Events._ID + " IN (" + entries.joinToString(",") { it.id.toString() } + ")", null).associateBy { it.id!! }
+
     fun processDirtyExceptions() {
         // process deleted exceptions
         Logger.log.info("Processing deleted exceptions")
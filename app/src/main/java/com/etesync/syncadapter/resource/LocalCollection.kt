@@ -19,6 +19,16 @@ interface LocalCollection<out T: LocalResource<*>> {
     fun findByUid(uid: String): T?
     fun findByFilename(filename: String): T?
 
+    /**
+     * Scans the collection once, see [LocalCollectionIndex].
+     */
+    fun buildIndex(): LocalCollectionIndex
+    fun findByIndexEntry(entry: LocalCollectionIndex.Entry): T?
+    /**
+     * Like [findByIndexEntry] for many entries with a single query, returns the resources by entry id.
+     */
+    fun findByIndexEntries(entries: List<LocalCollectionIndex.Entry>): Map<Long, T>
+
 
     fun count(): Long
 }
@@ -0,0 +1,87 @@
+package com.etesync.syncadapter.resource
+
+import android.database.Cursor
+
+/**
+ * File name/UID -> row index of a [LocalCollection], built with a single scan of the collection so that
+ * looking up resources that don't exist locally doesn't need a query, and those that do only need one by id
+ * (or one for many of them, see [LocalCollection.findByIndexEntries]).
+ *
+ * Resources that were written since the index was built are marked as stale with [invalidateFileName] or
+ * [invalidateUid], and have to be looked up directly again by both their file name and UID.
+ */
+class LocalCollectionIndex {
+    class Entry(val id: Long, val fileName: String?, val uid: String?, val eTag: String?, val type: Int = TYPE_DEFAULT)
+
+    private val byFileName = HashMap<String, Entry>()
+    private val byUid = HashMap<String, Entry>()
+    // Separate, as a file name of one resource may be the UID of another
+    private val staleFileNames = HashSet<String>()
+    private val staleUids = HashSet<String>()
+
+    val size: Int
+        get() = byFileName.size
+
+    /**
+     * Adds the rows of [cursor], which has to have the id, file name, UID and eTag as its first four columns.
+     * Rows added later win over existing ones with the same file name or UID.
+     */
+    fun addAll(cursor: Cursor, type: Int = TYPE_DEFAULT) {
+        while (cursor.moveToNext()) {
+            add(Entry(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3), type))
+        }
+    }
+
+    fun add(entry: Entry) {
+        entry.fileName?.let { byFileName[it] = entry }
+        entry.uid?.let { byUid[it] = entry }
+    }
+
+    fun isStaleFileName(fileName: String): Boolean {
+        return staleFileNames.contains(fileName)
+    }
+
+    fun isStaleUid(uid: String): Boolean {
+        return staleUids.contains(uid)
+    }
+
+    fun getByFileName(fileName: String): Entry? {
+        return byFileName[fileName]
+    }
+
+    fun getByUid(uid: String): Entry? {
+        return byUid[uid]
+    }
+
+    /**
+     * Marks the resource with this file name as changed since the index was built.
+     */
+    fun invalidateFileName(fileName: String) {
+        staleFileNames.add(fileName)
+        byFileName[fileName]?.let { invalidate(it) }
+    }
+
+    /**
+     * Marks the resource with this UID as changed since the index was built.
+     */
+    fun invalidateUid(uid: String) {
+        staleUids.add(uid)
+        byUid[uid]?.let { invalidate(it) }
+    }
+
+    private fun invalidate(entry: Entry) {
+        entry.fileName?.let {
+            staleFileNames.add(it)
+            byFileName.remove(it)
+        }
+        entry.uid?.let {
+            staleUids.add(it)
+            byUid.remove(it)
+        }
+    }
+
+    companion object {
+        const val TYPE_DEFAULT = 0
+        const val TYPE_GROUP = 1
+    }
+}
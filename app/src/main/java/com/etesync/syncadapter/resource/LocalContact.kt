@@ -82,6 +82,10 @@ class LocalContact : AndroidContact, LocalAddress {
         addressBook.provider?.update(rawContactSyncURI(), values, null, null)
     }
 
+    override fun deleteInBatch(batch: BatchOperation) {
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(rawContactSyncURI()))
+    }
+
     override fun resetDeleted() {
         val values = ContentValues(1)
         values.put(ContactsContract.RawContacts.DELETED, 0)
@@ -129,6 +129,25 @@ class LocalEvent : AndroidEvent, LocalResource<Event> {
         return this.update(event)
     }
 
+    /**
+     * Like [update], but only enqueues the operations in [batch], which has to be committed by the caller.
+     */
+    fun updateInBatch(batch: BatchOperation, event: Event) {
+        this.event = event
+        deleteInBatch(batch)
+        add(batch)
+    }
+
+    /**
+     * Like [delete], but only enqueues the operations (including the ones for exceptions) in [batch].
+     */
+    fun deleteInBatch(batch: BatchOperation) {
+        val id = requireNotNull(id)
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(calendar.syncAdapterURI(Events.CONTENT_URI))
+                .withSelection("${Events.ORIGINAL_ID}=?", arrayOf(id.toString())))
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(eventSyncURI()))
+    }
+
     /* custom queries */
 
     override fun legacyPrepareForUpload(fileName_: String?) {
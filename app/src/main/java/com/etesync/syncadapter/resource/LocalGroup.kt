@@ -33,6 +33,9 @@ class LocalGroup : AndroidGroup, LocalAddress {
         /** marshalled list of member UIDs, as sent by server  */
         val COLUMN_PENDING_MEMBERS = Groups.SYNC3
 
+        // Upper bound of provider operations to commit at once, see [applyPendingMemberships]
+        private const val MAX_BATCH_OPERATIONS = 400
+
         /**
          * Processes all groups with non-null {@link #COLUMN_PENDING_MEMBERS}: the pending memberships
          * are (if possible) applied, keeping cached memberships in sync.
@@ -45,7 +48,10 @@ class LocalGroup : AndroidGroup, LocalAddress {
                     "$COLUMN_PENDING_MEMBERS IS NOT NULL", null,
                     null
             )?.use { cursor ->
-                val batch = BatchOperation(addressBook.provider as ContentProviderClient)
+                // UID -> raw contact id of all contacts, only fetched if there are pending memberships
+                var contactIds: Map<String, Long>? = null
+                // Contacts whose memberships changed, their hash codes are only updated once all are applied
+                val changedContactIds = HashSet<Long>()
                 while (cursor.moveToNext()) {
                     val id = cursor.getLong(0)
 
@@ -62,18 +68,40 @@ class LocalGroup : AndroidGroup, LocalAddress {
                     }
 
                     // insert memberships
-                    val membersIds = members.map {uid ->
-                        Constants.log.fine("Assigning member: $uid")
-                        val contact = addressBook.findByUid(uid) as LocalContact?
-                        if (contact != null) contact.id else null
-                    }.filterNotNull()
+                    val allContactIds = contactIds ?: addressBook.getContactIdsByUid().also { contactIds = it }
+                    val membersIds = members.mapNotNull { uid ->
+                        val memberId = allContactIds[uid]
+                        if (memberId == null)
+                            Constants.log.fine("Group member not found: $uid")
+                        memberId
+                    }
 
+                    // Each group is committed on its own, so big groups don't hold the provider for long
                     val group = addressBook.findGroupById(id)
-                    group.setMembers(batch, membersIds)
+                    val batch = BatchOperation(addressBook.provider as ContentProviderClient)
+                    changedContactIds += group.setMembers(batch, membersIds)
+                    batch.commit()
+                }
+
+                if (LocalContact.HASH_HACK)
+                    updateHashCodes(addressBook, changedContactIds)
+            }
+        }
 
+        /**
+         * Workaround for Android 7 which sets DIRTY flag when only meta-data is changed: stores the
+         * current hash codes of the given contacts, committing every [MAX_BATCH_OPERATIONS] contacts.
+         */
+        private fun updateHashCodes(addressBook: LocalAddressBook, contactIds: Collection<Long>) {
+            var batch = BatchOperation(addressBook.provider!!)
+            for (contactId in contactIds) {
+                addressBook.findContactByID(contactId).updateHashCode(batch)
+                if (batch.nextBackrefIdx() >= MAX_BATCH_OPERATIONS) {
                     batch.commit()
+                    batch = BatchOperation(addressBook.provider!!)
                 }
             }
+            batch.commit()
         }
     }
 
@@ -176,13 +204,21 @@ class LocalGroup : AndroidGroup, LocalAddress {
         this.fileName = fileName
     }
 
+    override fun deleteInBatch(batch: BatchOperation) {
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(groupSyncUri()))
+    }
+
     override fun resetDeleted() {
         val values = ContentValues(1)
         values.put(Groups.DELETED, 0)
         addressBook.provider!!.update(groupSyncUri(), values, null, null)
     }
 
-    private fun setMembers(batch: BatchOperation, members: List<Long>) {
+    /**
+     * Enqueues replacing the memberships of this group with [members].
+     * @return raw contact IDs of the contacts whose memberships change
+     */
+    private fun setMembers(batch: BatchOperation, members: List<Long>): Set<Long> {
         val id = id!!
         val addressBook = this.addressBook as LocalAddressBook
         Constants.log.fine("Assigning members to group $id")
@@ -191,30 +227,36 @@ class LocalGroup : AndroidGroup, LocalAddress {
         val changeContactIDs = HashSet<Long>()
 
         // delete all memberships and cached memberships for this group
-        for (contact in addressBook.getByGroupMembership(id)) {
-            contact.removeGroupMemberships(batch)
-            changeContactIDs += contact.id!!
-        }
+        changeContactIDs += addressBook.getIdsByGroupMembership(id)
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(addressBook.syncAdapterURI(ContactsContract.Data.CONTENT_URI))
+                .withSelection(
+                        "(${GroupMembership.MIMETYPE}=? AND ${GroupMembership.GROUP_ROW_ID}=?) OR (${CachedGroupMembership.MIMETYPE}=? AND ${CachedGroupMembership.GROUP_ID}=?)",
+                        arrayOf(GroupMembership.CONTENT_ITEM_TYPE, id.toString(), CachedGroupMembership.CONTENT_ITEM_TYPE, id.toString())
+                )
+        )
 
         // insert memberships
+        Constants.log.fine("Assigning ${members.size} members")
         for (memberId in members) {
-            Constants.log.fine("Assigning member: $memberId")
-            addressBook.findContactByID(memberId).let { member ->
-                member.addToGroup(batch, id)
-                changeContactIDs += member.id!!
-            } ?: Constants.log.warning("Group member not found: $memberId")
+            batch.enqueue(BatchOperation.CpoBuilder.newInsert(addressBook.syncAdapterURI(ContactsContract.Data.CONTENT_URI))
+                    .withValue(GroupMembership.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE)
+                    .withValue(GroupMembership.RAW_CONTACT_ID, memberId)
+                    .withValue(GroupMembership.GROUP_ROW_ID, id)
+            )
+            batch.enqueue(BatchOperation.CpoBuilder.newInsert(addressBook.syncAdapterURI(ContactsContract.Data.CONTENT_URI))
+                    .withValue(CachedGroupMembership.MIMETYPE, CachedGroupMembership.CONTENT_ITEM_TYPE)
+                    .withValue(CachedGroupMembership.RAW_CONTACT_ID, memberId)
+                    .withValue(CachedGroupMembership.GROUP_ID, id)
+            )
+            changeContactIDs += memberId
         }
 
-        if (LocalContact.HASH_HACK)
-        // workaround for Android 7 which sets DIRTY flag when only meta-data is changed
-            changeContactIDs
-                    .map { addressBook.findContactByID(it) }
-                    .forEach { it.updateHashCode(batch) }
-
         // remove pending memberships
         batch.enqueue(BatchOperation.CpoBuilder.newUpdate(addressBook.syncAdapterURI(ContentUris.withAppendedId(Groups.CONTENT_URI, id)))
                         .withValue(COLUMN_PENDING_MEMBERS, null)
         )
+
+        return changeContactIDs
     }
 
 
@@ -224,9 +266,12 @@ class LocalGroup : AndroidGroup, LocalAddress {
         val ret = this.update(group)
 
         val batch = BatchOperation(addressBook.provider!!)
-        setMembers(batch, members)
+        val changeContactIDs = setMembers(batch, members)
         batch.commit()
 
+        if (LocalContact.HASH_HACK)
+            updateHashCodes(addressBook as LocalAddressBook, changeContactIDs)
+
         return ret
     }
 
@@ -236,9 +281,12 @@ class LocalGroup : AndroidGroup, LocalAddress {
         val ret = this.add()
 
         val batch = BatchOperation(addressBook.provider!!)
-        setMembers(batch, members)
+        val changeContactIDs = setMembers(batch, members)
         batch.commit()
 
+        if (LocalContact.HASH_HACK)
+            updateHashCodes(addressBook as LocalAddressBook, changeContactIDs)
+
         return ret
     }
 
@@ -91,6 +91,13 @@ class LocalTask : AndroidTask, LocalResource<Task> {
         return this.add()
     }
 
+    /**
+     * Like [delete], but only enqueues the operation in [batch], which has to be committed by the caller.
+     */
+    fun deleteInBatch(batch: BatchOperation) {
+        batch.enqueue(BatchOperation.CpoBuilder.newDelete(taskSyncURI()))
+    }
+
     /* custom queries */
 
     override fun legacyPrepareForUpload(fileName_: String?) {
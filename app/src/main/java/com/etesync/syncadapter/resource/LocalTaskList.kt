@@ -130,6 +130,26 @@ class LocalTaskList private constructor(
     override fun findByFilename(filename: String): LocalTask?
             = queryTasks(Tasks._SYNC_ID + " =? ", arrayOf(filename)).firstOrNull()
 
+    override fun buildIndex(): LocalCollectionIndex {
+        val index = LocalCollectionIndex()
+        try {
+            provider.client.query(TaskProvider.syncAdapterUri(provider.tasksUri(), account),
+                    arrayOf(Tasks._ID, Tasks._SYNC_ID, LocalTask.COLUMN_UID, LocalTask.COLUMN_ETAG),
+                    Tasks.LIST_ID + "=?", arrayOf(id.toString()), null)?.use { cursor ->
+                index.addAll(cursor)
+            }
+        } catch (e: RemoteException) {
+            throw CalendarStorageException("Couldn't query tasks", e)
+        }
+        return index
+    }
+
+    override fun findByIndexEntry(entry: LocalCollectionIndex.Entry): LocalTask?
+            = queryTasks(Tasks._ID + " =? ", arrayOf(entry.id.toString())).firstOrNull()
+
+    override fun findByIndexEntries(entries: List<LocalCollectionIndex.Entry>): Map<Long, LocalTask>
+            = queryTasks(Tasks._ID + " IN (" + entries.joinToString(",") { it.id.toString() } + ")", null).associateBy { it.id!! }
+
     override fun count(): Long {
         try {
             val cursor = provider.client.query(
@@ -71,14 +71,10 @@ class AddressBooksSyncAdapterService : SyncAdapterService() {
         private fun updateLocalAddressBooks(provider: ContentProviderClient, account: Account, settings: AccountSettings) {
             val remote = HashMap<String, CachedCollection>()
             val etebaseLocalCache = EtebaseLocalCache.getInstance(context, account.name)
-            val collections: List<CachedCollection>
-            synchronized(etebaseLocalCache) {
-                val httpClient = HttpClient.Builder(context, settings).setForeground(false).build()
-                val etebase = EtebaseLocalCache.getEtebase(context, httpClient.okHttpClient, settings)
-                val colMgr = etebase.collectionManager
+            val etebase = EtebaseLocalCache.getEtebase(context, settings)
+            val colMgr = etebase.collectionManager
 
-                collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_ADDRESS_BOOK }
-            }
+            val collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_ADDRESS_BOOK }
 
             for (collection in collections) {
                 remote[collection.col.uid] = collection
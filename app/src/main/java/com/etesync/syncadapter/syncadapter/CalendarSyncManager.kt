@@ -13,6 +13,7 @@ import android.content.Context
 import android.content.SyncResult
 import android.os.Build
 import android.os.Bundle
+import at.bitfire.ical4android.BatchOperation
 import at.bitfire.ical4android.CalendarStorageException
 import at.bitfire.ical4android.Event
 import at.bitfire.ical4android.InvalidCalendarException
@@ -39,6 +40,15 @@ import java.io.StringReader
  */
 class CalendarSyncManager @Throws(Exceptions.IntegrityException::class, Exceptions.GenericCryptoException::class)
 constructor(context: Context, account: Account, settings: AccountSettings, extras: Bundle, authority: String, result: SyncResult, calendar: LocalCalendar, private val remote: HttpUrl) : SyncManager<LocalEvent>(context, account, settings, extras, authority, result, calendar.name!!, CollectionInfo.Type.CALENDAR, account.name) {
+    private var batch: BatchOperation? = null
+
+    /**
+     * Start of the time range of events kept in the calendar provider, or null if it's not limited.
+     * Events outside of it are still kept in the local cache.
+     */
+    private val timeRangeStart: Long? = settings.timeRangePastDays?.let {
+        System.currentTimeMillis() - it * 24L * 60 * 60 * 1000
+    }
 
     override val syncErrorTitle: String
         get() = context.getString(R.string.sync_error_calendar, account.name)
@@ -66,6 +76,26 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
         return true
     }
 
+    override fun beginBatch(): Boolean {
+        batch = BatchOperation(localCalendar().provider)
+        return true
+    }
+
+    override fun batchOperations(): Int {
+        return batch?.nextBackrefIdx() ?: 0
+    }
+
+    @Throws(CalendarStorageException::class)
+    override fun commitBatch() {
+        val batch = this.batch ?: return
+        this.batch = null
+        batch.commit()
+    }
+
+    override fun abortBatch() {
+        batch = null
+    }
+
     @Throws(CalendarStorageException::class, ContactsStorageException::class)
     override fun prepareDirty() {
         super.prepareDirty()
@@ -80,32 +110,112 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
         return localCollection as LocalCalendar
     }
 
-    override fun processItem(item: Item) {
-        val local = localCollection!!.findByFilename(item.uid)
+    override fun parseItem(content: String): Any? {
+        val inputReader = StringReader(content)
 
-        if (!item.isDeleted) {
-            val inputReader = StringReader(String(item.content))
+        val events = Event.eventsFromReader(inputReader)
+        if (events.size == 0) {
+            Logger.log.warning("Received VCard without data, ignoring")
+            return null
+        } else if (events.size > 1) {
+            Logger.log.warning("Received multiple VCALs, using first one")
+        }
 
-            val events = Event.eventsFromReader(inputReader)
-            if (events.size == 0) {
-                Logger.log.warning("Received VCard without data, ignoring")
+        return events[0]
+    }
+
+    override fun processItem(item: Item, parsed: Any?) {
+        val local = findLocalByFilename(item.uid)
+
+        if (!item.isDeleted) {
+            val event = parsed as Event? ?: return
+            if (!isInTimeRange(event)) {
+                Logger.log.info("Event ${item.uid} ended before the synchronized time range, not keeping it in the calendar")
+                if (local != null) {
+                    deleteLocal(local)
+                }
                 return
-            } else if (events.size > 1) {
-                Logger.log.warning("Received multiple VCALs, using first one")
             }
 
-            val event = events[0]
             processEvent(item, event, local)
         } else {
             if (local != null) {
                 Logger.log.info("Removing local record #" + local.id + " which has been deleted on the server")
-                local.delete()
+                deleteLocal(local)
             } else {
                 Logger.log.warning("Tried deleting a non-existent record: " + item.uid)
             }
         }
     }
 
+    private fun deleteLocal(local: LocalEvent) {
+        val batch = this.batch
+        if (batch != null) {
+            local.deleteInBatch(batch)
+        } else {
+            local.delete()
+        }
+    }
+
+    private fun isInTimeRange(event: Event): Boolean {
+        val start = timeRangeStart ?: return true
+
+        if (event.rRules.isNotEmpty() || event.rDates.isNotEmpty()) {
+            // Recurrence masters are kept, unless all of their rules ended before the time range
+            return event.rDates.isNotEmpty() || event.rRules.any { rRule ->
+                val until = rRule.recur.until
+                until == null || until.time >= start
+            }
+        }
+
+        // Events with a DURATION instead of a DTEND are always kept
+        val end = event.dtEnd?.date ?: (if (event.duration == null) event.dtStart?.date else null)
+        return end == null || end.time >= start
+    }
+
+    /**
+     * Sliding time range maintenance: removes the events that moved out of the time range since the last
+     * sync, and adds the cached ones that are inside of it again after the range was widened or removed.
+     */
+    @Throws(CalendarStorageException::class)
+    private fun updateTimeRange() {
+        val calendar = localCalendar()
+        val start = timeRangeStart
+
+        if (start != null) {
+            val evicted = calendar.evictEndedBefore(start)
+            if (evicted > 0) {
+                Logger.log.info("Removed $evicted events that ended before the synchronized time range")
+            }
+        }
+
+        val pastDays = settings.timeRangePastDays
+        val previousPastDays = calendar.timeRangePastDays
+        if (pastDays == previousPastDays) {
+            return
+        }
+
+        if (previousPastDays != null && (pastDays == null || pastDays > previousPastDays)) {
+            Logger.log.info("Time range widened, adding cached events that are now inside of it")
+            val index = calendar.buildIndex()
+            var added = 0
+            for (cachedItem in etebaseLocalCache.itemListMetadata(itemMgr, cachedCollection.col.uid)) {
+                if (index.getByFileName(cachedItem.item.uid) != null) {
+                    continue
+                }
+
+                val event = Event.eventsFromReader(StringReader(cachedItem.content)).firstOrNull() ?: continue
+                if (isInTimeRange(event)) {
+                    LocalEvent(calendar, event, cachedItem.item.uid, cachedItem.item.etag).add()
+                    added++
+                }
+            }
+            Logger.log.info("Added $added events")
+        }
+
+        calendar.timeRangePastDays = pastDays
+    }
+
     @Throws(IOException::class, ContactsStorageException::class, CalendarStorageException::class, InvalidCalendarException::class)
     override fun processSyncEntryImpl(cEntry: SyncEntry) {
         val inputReader = StringReader(cEntry.content)
@@ -119,7 +229,7 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
         }
 
         val event = events[0]
-        val local = localCollection!!.findByUid(event.uid!!)
+        val local = findLocalByUid(event.uid!!)
 
         if (cEntry.isAction(SyncEntry.Actions.ADD) || cEntry.isAction(SyncEntry.Actions.CHANGE)) {
             legacyProcessEvent(event, local)
@@ -133,6 +243,15 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
         }
     }
 
+    @Throws(CalendarStorageException::class, ContactsStorageException::class)
+    override fun postProcess() {
+        super.postProcess()
+
+        if (!isLegacy) {
+            updateTimeRange()
+        }
+    }
+
     @Throws(CalendarStorageException::class, ContactsStorageException::class, IOException::class)
     override fun prepareLocal() {
         super.prepareLocal()
@@ -169,16 +288,25 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
 
     private fun processEvent(item: Item, newData: Event, _localEvent: LocalEvent?): LocalEvent {
         var localEvent = _localEvent
+        val batch = this.batch
         // delete local event, if it exists
         if (localEvent != null) {
             Logger.log.info("Updating " + newData.uid + " in local calendar")
             localEvent.eTag = item.etag
-            localEvent.update(newData)
+            if (batch != null) {
+                localEvent.updateInBatch(batch, newData)
+            } else {
+                localEvent.update(newData)
+            }
             syncResult.stats.numUpdates++
         } else {
             Logger.log.info("Adding " + newData.uid + " to local calendar")
             localEvent = LocalEvent(localCalendar(), newData, item.uid, item.etag)
-            localEvent.add()
+            if (batch != null) {
+                localEvent.add(batch)
+            } else {
+                localEvent.add()
+            }
             syncResult.stats.numInserts++
         }
 
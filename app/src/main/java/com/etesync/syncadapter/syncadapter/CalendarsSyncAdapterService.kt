@@ -44,9 +44,10 @@ class CalendarsSyncAdapterService : SyncAdapterService() {
 
             val principal = settings.uri?.toHttpUrlOrNull()!!
 
-            for (calendar in AndroidCalendar.find(account, provider, LocalCalendar.Factory, CalendarContract.Calendars.SYNC_EVENTS + "!=0", null)) {
+            val calendars = AndroidCalendar.find(account, provider, LocalCalendar.Factory, CalendarContract.Calendars.SYNC_EVENTS + "!=0", null)
+            syncConcurrently(calendars, settings.syncParallelism, syncResult) { calendar, calendarSyncResult ->
                 Logger.log.info("Synchronizing calendar #" + calendar.id + ", URL: " + calendar.name)
-                CalendarSyncManager(context, account, settings, extras, authority, syncResult, calendar, principal).use {
+                CalendarSyncManager(context, account, settings, extras, authority, calendarSyncResult, calendar, principal).use {
                     it.performSync()
                 }
             }
@@ -57,14 +58,10 @@ class CalendarsSyncAdapterService : SyncAdapterService() {
         private fun updateLocalCalendars(provider: ContentProviderClient, account: Account, settings: AccountSettings) {
             val remote = HashMap<String, CachedCollection>()
             val etebaseLocalCache = EtebaseLocalCache.getInstance(context, account.name)
-            val collections: List<CachedCollection>
-            synchronized(etebaseLocalCache) {
-                val httpClient = HttpClient.Builder(context, settings).setForeground(false).build()
-                val etebase = EtebaseLocalCache.getEtebase(context, httpClient.okHttpClient, settings)
-                val colMgr = etebase.collectionManager
+            val etebase = EtebaseLocalCache.getEtebase(context, settings)
+            val colMgr = etebase.collectionManager
 
-                collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_CALENDAR }
-            }
+            val collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_CALENDAR }
 
             for (collection in collections) {
                 remote[collection.col.uid] = collection
@@ -34,9 +34,17 @@ import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
 import org.apache.commons.collections4.SetUtils
+import java.io.ByteArrayOutputStream
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.io.StringReader
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
 import java.util.logging.Level
 
 /**
@@ -46,6 +54,7 @@ import java.util.logging.Level
 class ContactsSyncManager @Throws(Exceptions.IntegrityException::class, Exceptions.GenericCryptoException::class, ContactsStorageException::class)
 constructor(context: Context, account: Account, settings: AccountSettings, extras: Bundle, authority: String, private val provider: ContentProviderClient, result: SyncResult, localAddressBook: LocalAddressBook, private val remote: HttpUrl) : SyncManager<LocalAddress>(context, account, settings, extras, authority, result, localAddressBook.url, CollectionInfo.Type.ADDRESS_BOOK, localAddressBook.mainAccount.name) {
     private val resourceDownloader: ResourceDownloader
+    private var batch: BatchOperation? = null
 
     protected override val syncErrorTitle: String
         get() = context.getString(R.string.sync_error_contacts, account.name)
@@ -122,32 +131,84 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
     }
 
 
+    override fun beginBatch(): Boolean {
+        batch = BatchOperation(localAddressBook().provider!!)
+        return true
+    }
+
+    override fun batchOperations(): Int {
+        return batch?.nextBackrefIdx() ?: 0
+    }
+
+    @Throws(ContactsStorageException::class)
+    override fun commitBatch() {
+        val batch = this.batch ?: return
+        this.batch = null
+        batch.commit()
+    }
+
+    override fun abortBatch() {
+        batch = null
+    }
+
     // helpers
 
     private fun localAddressBook(): LocalAddressBook {
         return localCollection as LocalAddressBook
     }
 
-    override fun processItem(item: Item) {
-        val local = localCollection!!.findByFilename(item.uid)
+    /**
+     * A contact parsed by [parseItem], with its photo still being downloaded if it's only referenced by URL.
+     */
+    private class ParsedContact(val contact: Contact, val photo: Future<ByteArray?>?)
 
-        if (!item.isDeleted) {
-            val inputReader = StringReader(String(item.content))
-
-            val contacts = Contact.fromReader(inputReader, resourceDownloader)
-            if (contacts.size == 0) {
-                Logger.log.warning("Received VCard without data, ignoring")
-                return
-            } else if (contacts.size > 1) {
-                Logger.log.warning("Received multiple VCALs, using first one")
+    override fun parseItem(content: String): Any? {
+        val inputReader = StringReader(content)
+
+        // Parsing runs on the shared parse threads, so don't keep them waiting for the network: photo URLs
+        // are only collected here, and downloaded on the downloader's own threads while the page is applied
+        val photoUrls = LinkedList<String>()
+        val contacts = Contact.fromReader(inputReader, object : Contact.Downloader {
+            override fun download(url: String, accepts: String): ByteArray? {
+                photoUrls.add(url)
+                return null
             }
+        })
+        if (contacts.size == 0) {
+            Logger.log.warning("Received VCard without data, ignoring")
+            return null
+        } else if (contacts.size > 1) {
+            Logger.log.warning("Received multiple VCALs, using first one")
+        }
+
+        val contact = contacts[0]
+        val photo = if (contact.photo == null && photoUrls.isNotEmpty()) resourceDownloader.downloadLater(photoUrls, "image/*") else null
+        return ParsedContact(contact, photo)
+    }
 
-            val contact = contacts[0]
+    override fun processItem(item: Item, parsed: Any?) {
+        val local = findLocalByFilename(item.uid)
+
+        if (!item.isDeleted) {
+            val parsedContact = parsed as ParsedContact? ?: return
+            val contact = parsedContact.contact
+            parsedContact.photo?.let { photo ->
+                try {
+                    photo.get()?.let { contact.photo = it }
+                } catch (e: ExecutionException) {
+                    Logger.log.log(Level.SEVERE, "Couldn't download external resource", e.cause)
+                }
+            }
             processContact(item, contact, local)
         } else {
             if (local != null) {
                 Logger.log.info("Removing local record which has been deleted on the server")
-                local.delete()
+                val batch = this.batch
+                if (batch != null) {
+                    local.deleteInBatch(batch)
+                } else {
+                    local.delete()
+                }
             } else {
                 Logger.log.warning("Tried deleting a non-existent record: " + item.uid)
             }
@@ -166,7 +227,7 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
             Logger.log.warning("Received multiple VCards, using first one")
 
         val contact = contacts[0]
-        val local = localCollection!!.findByUid(contact.uid!!)
+        val local = findLocalByUid(contact.uid!!)
 
         if (cEntry.isAction(SyncEntry.Actions.ADD) || cEntry.isAction(SyncEntry.Actions.CHANGE)) {
             legacyProcessContact(contact, local)
@@ -313,24 +374,87 @@ constructor(context: Context, account: Account, settings: AccountSettings, extra
                 return null
             }
 
-            val resourceClient = HttpClient.Builder(context).setForeground(false).build().okHttpClient
+            val resourceClient = HttpClient.getResourceClient(context).okHttpClient
 
+            val hostLimit = synchronized(hostLimits) {
+                hostLimits.getOrPut(host) { Semaphore(MAX_DOWNLOADS_PER_HOST) }
+            }
+            hostLimit.acquire()
             try {
-                val response = resourceClient.newCall(Request.Builder()
+                resourceClient.newCall(Request.Builder()
                         .get()
                         .url(httpUrl)
-                        .build()).execute()
-
-                val body = response.body
-                if (body != null) {
-                    return body.bytes()
+                        .build()).execute().use { response ->
+                    val body = response.body
+                    if (!response.isSuccessful || body == null) {
+                        Logger.log.warning("Couldn't download external resource $url: ${response.code}")
+                        return null
+                    }
+
+                    if (body.contentLength() > MAX_RESOURCE_SIZE) {
+                        Logger.log.warning("External resource $url is too large (${body.contentLength()} bytes), ignoring")
+                        return null
+                    }
+
+                    val out = ByteArrayOutputStream()
+                    val buffer = ByteArray(8192)
+                    body.byteStream().use { stream ->
+                        while (true) {
+                            val read = stream.read(buffer)
+                            if (read < 0) {
+                                break
+                            }
+                            out.write(buffer, 0, read)
+                            if (out.size() > MAX_RESOURCE_SIZE) {
+                                Logger.log.warning("External resource $url is too large, ignoring")
+                                return null
+                            }
+                        }
+                    }
+                    return out.toByteArray()
                 }
-            } catch (e: IOException) {
+            } catch (e: InterruptedException) {
+                throw e
+            } catch (e: Exception) {
+                // Not only I/O errors (e.g. OkHttp's disk cache throws IllegalStateException), but a missing photo
+                // shouldn't fail the whole contact
                 Logger.log.log(Level.SEVERE, "Couldn't download external resource", e)
+            } finally {
+                hostLimit.release()
             }
 
             return null
         }
+
+        /**
+         * Downloads the first of [urls] that can be downloaded on the [downloadPool], so the caller doesn't
+         * have to wait for it.
+         */
+        fun downloadLater(urls: List<String>, accepts: String): Future<ByteArray?> {
+            return downloadPool.submit(Callable {
+                // May still be running after the sync is done
+                HttpClient.useBackgroundClients {
+                    urls.asSequence().mapNotNull { download(it, accepts) }.firstOrNull()
+                }
+            })
+        }
+
+        companion object {
+            /** max. size of a downloaded external resource (5 MB) */
+            private const val MAX_RESOURCE_SIZE = 5 * 1024 * 1024
+            private const val MAX_DOWNLOADS_PER_HOST = 4
+            private const val DOWNLOAD_THREADS = 4
+
+            private val hostLimits = HashMap<String, Semaphore>()
+
+            private val downloadPool: ExecutorService by lazy {
+                Executors.newFixedThreadPool(DOWNLOAD_THREADS) { runnable ->
+                    Thread(runnable, "ResourceDownloader").apply {
+                        isDaemon = true
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,115 @@
+package com.etesync.syncadapter.syncadapter
+
+import com.etebase.client.FetchOptions
+import com.etebase.client.ItemListResponse
+import com.etebase.client.ItemManager
+import com.etesync.syncadapter.log.Logger
+import java.io.Closeable
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Fetches the item list of a collection page by page on a background thread, so the next page
+ * is already in flight while the current one is being applied.
+ *
+ * At most [depth] fetched pages wait in memory; the fetching thread blocks until the consumer
+ * catches up. Fetching stops after the last page, or after the page whose stoken equals [lastStoken].
+ *
+ * Each page asks for [pageSize] items, read right before the page is requested.
+ */
+class ItemListPrefetcher(private val itemMgr: ItemManager, private var stoken: String?, private val lastStoken: String?, depth: Int = 1,
+                         private val pageSize: (() -> Int)? = null) : Closeable {
+    private class Page(val itemList: ItemListResponse?, val error: Throwable?, val limit: Int = 0, val millis: Long = 0)
+
+    private val queue = ArrayBlockingQueue<Page>(depth)
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+    private var done = false
+
+    /** Number of items requested for, and time taken to fetch the page last returned by [next] */
+    var lastLimit: Int = 0
+        private set
+    var lastMillis: Long = 0
+        private set
+
+    init {
+        executor.execute {
+            try {
+                var itemList: ItemListResponse
+                do {
+                    val limit = pageSize?.invoke() ?: 0
+                    val options = FetchOptions().stoken(stoken)
+                    if (limit > 0) {
+                        options.limit(limit.toLong())
+                    }
+                    val start = System.currentTimeMillis()
+                    itemList = itemMgr.list(options)
+                    val millis = System.currentTimeMillis() - start
+                    Logger.log.info("Fetched items. Done=${itemList.isDone}")
+                    queue.put(Page(itemList, null, limit, millis))
+                    stoken = itemList.stoken
+                    // Like fetching on the sync thread did, also stop once we reach the stoken the collection
+                    // had when the sync started: that's all the sync is after, and later changes are left to
+                    // the next sync, which then also sees the matching collection metadata.
+                } while (!itemList.isDone && stoken != lastStoken)
+                queue.put(Page(null, null))
+            } catch (e: InterruptedException) {
+                // Closed by the consumer
+            } catch (e: Throwable) {
+                try {
+                    queue.put(Page(null, e))
+                } catch (ignored: InterruptedException) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next fetched page, blocking until it's available, or null if there are no more pages.
+     * Errors raised while fetching are rethrown here, on the consumer's thread.
+     */
+    @Throws(InterruptedException::class)
+    fun next(): ItemListResponse? {
+        if (done) {
+            return null
+        }
+
+        val page = queue.take()
+        if (page.error != null) {
+            done = true
+            throw page.error
+        } else if (page.itemList == null) {
+            done = true
+        }
+        lastLimit = page.limit
+        lastMillis = page.millis
+        return page.itemList
+    }
+
+    /**
+     * Stops fetching, and waits (but not forever) for a page that's still in flight, so it doesn't keep
+     * the connection busy after the sync moved on.
+     */
+    override fun close() {
+        executor.shutdownNow()
+
+        // The calling thread may be interrupted itself, which would make awaitTermination() return right away
+        var interrupted = Thread.interrupted()
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Logger.log.warning("Item list prefetching didn't stop within ${SHUTDOWN_TIMEOUT_SECONDS}s")
+            }
+        } catch (e: InterruptedException) {
+            interrupted = true
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt()
+            }
+        }
+    }
+
+    companion object {
+        private const val SHUTDOWN_TIMEOUT_SECONDS = 10L
+    }
+}
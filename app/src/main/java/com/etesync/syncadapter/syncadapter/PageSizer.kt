@@ -0,0 +1,98 @@
+package com.etesync.syncadapter.syncadapter
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.etesync.syncadapter.log.Logger
+
+/**
+ * Picks the number of items per fetch or push page from what the previous pages measured: their round trip
+ * time, their size in bytes and the free heap. Pages grow while they are fast and small, and shrink when they
+ * get slow, get close to [byteBudget], or would take too much of the remaining heap.
+ *
+ * The learned size is kept per [key] (collection and direction), so later syncs start from it.
+ */
+class PageSizer(context: Context, private val key: String, defaultSize: Int, private val minSize: Int, private val maxSize: Int, private val byteBudget: Long) {
+    private val prefs: SharedPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
+
+    // Read from the prefetching thread
+    @Volatile
+    var size: Int = prefs.getInt(key, defaultSize).coerceIn(minSize, maxSize)
+        private set
+
+    private var avgItemBytes: Double = prefs.getFloat("$key$SUFFIX_ITEM_BYTES", 0f).toDouble()
+
+    /**
+     * Updates [size] after a page of [count] items (out of the [requested] ones), which were [bytes] long and
+     * took [millis] to transfer.
+     */
+    fun onPage(requested: Int, count: Int, bytes: Long, millis: Long) {
+        if (count <= 0) {
+            return
+        }
+
+        val itemBytes = bytes.toDouble() / count
+        avgItemBytes = if (avgItemBytes > 0) (avgItemBytes + itemBytes) / 2 else itemBytes
+
+        var next = size.toDouble()
+        // Only a full page tells us something about how larger pages would do
+        if (count >= requested && millis > 0) {
+            next = requested * (TARGET_PAGE_MILLIS.toDouble() / millis).coerceIn(MIN_FACTOR, MAX_FACTOR)
+        }
+        if (avgItemBytes > 0) {
+            next = minOf(next, targetBytes() / avgItemBytes)
+        }
+
+        val newSize = next.toInt().coerceIn(minSize, maxSize)
+        if (newSize != size) {
+            Logger.log.fine("Page size for $key: $size -> $newSize (${count} items, ${bytes} bytes, ${millis}ms)")
+            size = newSize
+        }
+    }
+
+    fun onOutOfMemory() {
+        size = (size / 2).coerceIn(minSize, maxSize)
+        Logger.log.warning("Out of memory, page size for $key reduced to $size")
+        save()
+    }
+
+    fun save() {
+        prefs.edit()
+                .putInt(key, size)
+                .putFloat("$key$SUFFIX_ITEM_BYTES", avgItemBytes.toFloat())
+                .apply()
+    }
+
+    private fun targetBytes(): Long {
+        val runtime = Runtime.getRuntime()
+        val headroom = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())
+        // A page is held in memory a few times over (encrypted, decrypted, parsed)
+        return minOf(byteBudget, headroom / HEAP_FRACTION)
+    }
+
+    companion object {
+        private const val PREF_NAME = "sync_page_sizes"
+        private const val SUFFIX_ITEM_BYTES = "/item_bytes"
+
+        /** pages taking about this long are big enough that the round trip time doesn't dominate */
+        private const val TARGET_PAGE_MILLIS = 2000L
+        private const val MIN_FACTOR = 0.5
+        private const val MAX_FACTOR = 2.0
+        private const val HEAP_FRACTION = 8
+
+        fun forFetch(context: Context, accountName: String, colUid: String, byteBudget: Long): PageSizer {
+            return PageSizer(context, "$accountName/$colUid/fetch", DEFAULT_FETCH, MIN_FETCH, MAX_FETCH, byteBudget)
+        }
+
+        fun forPush(context: Context, accountName: String, colUid: String, byteBudget: Long): PageSizer {
+            return PageSizer(context, "$accountName/$colUid/push", DEFAULT_PUSH, MIN_PUSH, MAX_PUSH, byteBudget)
+        }
+
+        // The defaults are the fixed page sizes used before
+        private const val DEFAULT_FETCH = 50
+        private const val MIN_FETCH = 10
+        private const val MAX_FETCH = 500
+        private const val DEFAULT_PUSH = 30
+        private const val MIN_PUSH = 5
+        private const val MAX_PUSH = 200
+    }
+}
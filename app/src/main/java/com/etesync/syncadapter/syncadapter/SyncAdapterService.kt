@@ -41,6 +41,10 @@ import com.etesync.syncadapter.utils.NotificationUtils
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import java.lang.Math.abs
 import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import java.util.logging.Level
 
 //import com.android.vending.billing.IInAppBillingService;
@@ -114,7 +118,9 @@ abstract class SyncAdapterService : Service() {
             notificationManager.cancel()
 
             try {
-                onPerformSyncDo(account, extras, authority, provider, syncResult)
+                HttpClient.useBackgroundClients {
+                    onPerformSyncDo(account, extras, authority, provider, syncResult)
+                }
             } catch (e: SecurityException) {
                 // Shouldn't be needed - not sure why it doesn't fail
                 onSecurityException(account, extras, authority, syncResult)
@@ -177,6 +183,98 @@ abstract class SyncAdapterService : Service() {
             nm.notify(Constants.NOTIFICATION_PERMISSIONS, notify)
         }
 
+        /**
+         * Runs [sync] for each of [collections], on up to [parallelism] threads at a time. Every run gets its
+         * own [SyncResult], which is merged into [syncResult] when it's done.
+         *
+         * If the calling thread is interrupted, the running syncs are interrupted as well and the remaining
+         * ones are skipped.
+         */
+        protected fun <T> syncConcurrently(collections: List<T>, parallelism: Int, syncResult: SyncResult, sync: (T, SyncResult) -> Unit) {
+            if (parallelism <= 1 || collections.size <= 1) {
+                for (collection in collections) {
+                    sync(collection, syncResult)
+                }
+                return
+            }
+
+            val classLoader = Thread.currentThread().contextClassLoader
+            val executor = Executors.newFixedThreadPool(Math.min(parallelism, collections.size))
+            try {
+                val futures = collections.map { collection ->
+                    executor.submit {
+                        Thread.currentThread().contextClassLoader = classLoader
+
+                        val collectionResult = SyncResult()
+                        try {
+                            sync(collection, collectionResult)
+                        } finally {
+                            synchronized(syncResult) {
+                                mergeSyncResult(syncResult, collectionResult)
+                            }
+                        }
+                    }
+                }
+
+                for (future in futures) {
+                    try {
+                        future.get()
+                    } catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+            } catch (e: InterruptedException) {
+                Logger.log.info("Sync interrupted, cancelling the remaining collections")
+                synchronized(syncResult) {
+                    syncResult.fullSyncRequested = true
+                }
+                Thread.currentThread().interrupt()
+            } finally {
+                executor.shutdownNow()
+                awaitSyncs(executor)
+            }
+        }
+
+        /**
+         * Waits for the interrupted syncs of [syncConcurrently] to stop, but not forever, so they don't keep
+         * writing to the providers after the sync of the account finished.
+         */
+        private fun awaitSyncs(executor: ExecutorService) {
+            // The calling thread may be interrupted itself, which would make awaitTermination() return right away
+            var interrupted = Thread.interrupted()
+            try {
+                if (!executor.awaitTermination(SYNC_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    Logger.log.warning("Collection syncs didn't stop within ${SYNC_SHUTDOWN_TIMEOUT_SECONDS}s")
+                }
+            } catch (e: InterruptedException) {
+                interrupted = true
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt()
+                }
+            }
+        }
+
+        private fun mergeSyncResult(to: SyncResult, from: SyncResult) {
+            to.stats.numAuthExceptions += from.stats.numAuthExceptions
+            to.stats.numIoExceptions += from.stats.numIoExceptions
+            to.stats.numParseExceptions += from.stats.numParseExceptions
+            to.stats.numConflictDetectedExceptions += from.stats.numConflictDetectedExceptions
+            to.stats.numInserts += from.stats.numInserts
+            to.stats.numUpdates += from.stats.numUpdates
+            to.stats.numDeletes += from.stats.numDeletes
+            to.stats.numEntries += from.stats.numEntries
+            to.stats.numSkippedEntries += from.stats.numSkippedEntries
+
+            to.tooManyDeletions = to.tooManyDeletions || from.tooManyDeletions
+            to.tooManyRetries = to.tooManyRetries || from.tooManyRetries
+            to.databaseError = to.databaseError || from.databaseError
+            to.fullSyncRequested = to.fullSyncRequested || from.fullSyncRequested
+            to.partialSyncUnavailable = to.partialSyncUnavailable || from.partialSyncUnavailable
+            to.moreRecordsToGet = to.moreRecordsToGet || from.moreRecordsToGet
+            to.delayUntil = Math.max(to.delayUntil, from.delayUntil)
+        }
+
         protected fun checkSyncConditions(settings: AccountSettings): Boolean {
             if (settings.syncWifiOnly) {
                 val cm = context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
@@ -216,7 +314,7 @@ abstract class SyncAdapterService : Service() {
                 Logger.log.info("Refreshing " + serviceType + " collections of service #" + serviceType.toString())
 
                 val settings = AccountSettings(context, account)
-                val httpClient = HttpClient.Builder(context, settings).setForeground(false).build()
+                val httpClient = HttpClient.getBackgroundClient(context, settings)
 
                 if (settings.isLegacy) {
                     val journalsManager = JournalManager(httpClient.okHttpClient, settings.uri?.toHttpUrlOrNull()!!)
@@ -239,22 +337,20 @@ abstract class SyncAdapterService : Service() {
                     }
 
                     legacySaveCollections(journals)
-
-                    httpClient.close()
                     return
                 }
 
                 val etebaseLocalCache = EtebaseLocalCache.getInstance(context, account.name)
-                synchronized(etebaseLocalCache) {
+                etebaseLocalCache.withAccountLock {
                     val cacheAge = 5 * 1000 // 5 seconds - it's just a hack for burst fetching
                     val now = System.currentTimeMillis()
                     val lastCollectionsFetch = collectionLastFetchMap[account.name] ?: 0
 
                     if (abs(now - lastCollectionsFetch) <= cacheAge) {
-                        return@synchronized
+                        return@withAccountLock
                     }
 
-                    val etebase = EtebaseLocalCache.getEtebase(context, httpClient.okHttpClient, settings)
+                    val etebase = EtebaseLocalCache.getEtebase(context, settings)
                     val colMgr = etebase.collectionManager
                     var stoken = etebaseLocalCache.loadStoken()
                     var done = false
@@ -276,8 +372,6 @@ abstract class SyncAdapterService : Service() {
                     }
                     collectionLastFetchMap[account.name] = now
                 }
-
-                httpClient.close()
             }
 
             private fun legacySaveCollections(journals: Iterable<Pair<JournalManager.Journal, CollectionInfo>>) {
@@ -317,6 +411,9 @@ abstract class SyncAdapterService : Service() {
     }
 
     companion object {
+        /** max. time to wait for the collection syncs to stop after interrupting them */
+        private const val SYNC_SHUTDOWN_TIMEOUT_SECONDS = 30L
+
         val journalFetcher = CachedJournalFetcher()
         var collectionLastFetchMap = HashMap<String, Long>()
     }
@@ -17,6 +17,7 @@ import at.bitfire.ical4android.CalendarStorageException
 import at.bitfire.ical4android.InvalidCalendarException
 import at.bitfire.vcard4android.ContactsStorageException
 import com.etebase.client.*
+import com.etebase.client.exceptions.ConflictException
 import com.etebase.client.exceptions.ConnectionException
 import com.etebase.client.exceptions.HttpException
 import com.etebase.client.exceptions.TemporaryServerErrorException
@@ -41,7 +42,13 @@ import org.jetbrains.anko.defaultSharedPreferences
 import java.io.Closeable
 import java.io.FileNotFoundException
 import java.io.IOException
+import java.security.MessageDigest
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.concurrent.locks.ReentrantLock
 import java.util.logging.Level
 import javax.net.ssl.SSLHandshakeException
@@ -56,8 +63,11 @@ constructor(protected val context: Context, protected val account: Account, prot
     protected val notificationManager: SyncNotification
     protected lateinit var info: CollectionInfo
     protected var localCollection: LocalCollection<T>? = null
+    private var localIndex: LocalCollectionIndex? = null
+    // Local resources of the page being applied, by index entry id, see prefetchLocal()
+    private val prefetchedLocal = HashMap<Long, T?>()
 
-    protected var httpClient: HttpClient
+    protected val httpClient: HttpClient
 
     protected lateinit var etebaseLocalCache: EtebaseLocalCache
     protected lateinit var etebase: com.etebase.client.Account
@@ -73,6 +83,11 @@ constructor(protected val context: Context, protected val account: Account, prot
     protected var journal: JournalEntryManager? = null
     private var _journalEntity: JournalEntity? = null
 
+    /**
+     * Journal entries waiting to be written to the local db by [flushSyncEntries]
+     */
+    private val pendingSyncEntries = LinkedList<PendingSyncEntry>()
+
     private var numDiscarded = 0
 
     private lateinit var crypto: Crypto.CryptoManager
@@ -100,6 +115,33 @@ constructor(protected val context: Context, protected val account: Account, prot
     private var localDeleted: List<T>? = null
     protected var localDirty: List<T> = LinkedList()
 
+    /**
+     * Content digests and contents of the items created by [createPushItems], stored with them once they are
+     * pushed, their total size, and the number of dirty or deleted resources it skipped because the server
+     * already has them.
+     */
+    private val pushContentDigests = HashMap<String, String>()
+    private val pushContents = HashMap<String, String>()
+    private var pushBytes = 0L
+    private var numSkippedLocal = 0
+
+    /**
+     * Page sizes of the etebase fetch and push, adapted to the collection's items and the connection. [pushLimit]
+     * is the size of the current push chunk.
+     */
+    private lateinit var fetchPageSizer: PageSizer
+    private lateinit var pushPageSizer: PageSizer
+    private var pushLimit = MAX_PUSH
+
+    /**
+     * Stats of the current sync, and of the phase that's currently running (or a throwaway one between phases).
+     */
+    protected lateinit var syncStats: SyncStats
+    private val idleStats = SyncPhaseStats(0)
+    protected var phaseStats = idleStats
+        private set
+    private val collectionUid = journalUid
+
     protected abstract val syncErrorTitle: String
 
     protected abstract val syncSuccessfullyTitle: String
@@ -107,9 +149,15 @@ constructor(protected val context: Context, protected val account: Account, prot
     private val journalEntity: JournalEntity
         get() = JournalModel.Journal.fetch(data, info.getServiceEntity(data), info.uid)
 
+    /**
+     * Same as [journalEntity], but only fetched once. Only used as the reference for the entries we write.
+     */
+    private val cachedJournalEntity: JournalEntity
+        get() = _journalEntity ?: journalEntity.also { _journalEntity = it }
+
     init {
-        // create HttpClient with given logger
-        httpClient = HttpClient.Builder(context, settings).setForeground(false).build()
+        // shared with the account's other collections and syncs, so not closed here
+        httpClient = HttpClient.getBackgroundClient(context, settings)
 
         if (isLegacy) {
             data = (context.applicationContext as App).data
@@ -125,12 +173,14 @@ constructor(protected val context: Context, protected val account: Account, prot
             }
         } else {
             etebaseLocalCache = EtebaseLocalCache.getInstance(context, accountName)
-            etebase = EtebaseLocalCache.getEtebase(context, httpClient.okHttpClient, settings)
+            etebase = EtebaseLocalCache.getEtebase(context, settings)
             colMgr = etebase.collectionManager
-            synchronized(etebaseLocalCache) {
-                cachedCollection = etebaseLocalCache.collectionGet(colMgr, journalUid)!!
-            }
+            cachedCollection = etebaseLocalCache.collectionGet(colMgr, journalUid)
             itemMgr = colMgr.getItemManager(cachedCollection.col)
+
+            val pageBytes = settings.syncPageBytes
+            fetchPageSizer = PageSizer.forFetch(context, account.name, journalUid, pageBytes)
+            pushPageSizer = PageSizer.forPush(context, account.name, journalUid, pageBytes)
         }
 
         // dismiss previous error notifications
@@ -141,7 +191,6 @@ constructor(protected val context: Context, protected val account: Account, prot
     protected abstract fun notificationId(): Int
 
     override fun close() {
-        httpClient.close()
     }
 
     @TargetApi(21)
@@ -150,48 +199,35 @@ constructor(protected val context: Context, protected val account: Account, prot
         syncItemsDeleted = 0
         syncItemsChanged = 0
 
+        syncStats = SyncStats(account.name, authority, collectionUid)
+        syncStats.collectionName = if (isLegacy) info.displayName else cachedCollection.meta.name
+        syncStats.resultStarted(syncResult.stats)
         var syncPhase = R.string.sync_phase_prepare
         try {
-            Logger.log.info("Sync phase: " + context.getString(syncPhase))
-            if (!prepare()) {
+            if (!measurePhase(syncPhase) { prepare() }) {
                 Logger.log.info("No reason to synchronize, aborting")
                 return
             }
 
-            if (Thread.interrupted())
-                throw InterruptedException()
             syncPhase = R.string.sync_phase_prepare_fetch
-            Logger.log.info("Sync phase: " + context.getString(syncPhase))
-            prepareFetch()
+            measurePhase(syncPhase) { prepareFetch() }
 
             if (isLegacy) {
                 do {
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_fetch_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    fetchEntries()
+                    measurePhase(syncPhase) { fetchEntries() }
 
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_apply_remote_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    applyRemoteEntries()
+                    measurePhase(syncPhase) { applyRemoteEntries() }
                 } while (remoteEntries!!.size == MAX_FETCH)
 
                 do {
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_prepare_local
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    prepareLocal()
+                    measurePhase(syncPhase) { prepareLocal() }
 
                     /* Create journal entries out of local changes. */
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_create_local_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    createLocalEntries()
+                    measurePhase(syncPhase) { createLocalEntries() }
 
                     if (Thread.interrupted())
                         throw InterruptedException()
@@ -201,71 +237,62 @@ constructor(protected val context: Context, protected val account: Account, prot
                     applyLocalEntries();
                     */
 
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_push_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    pushEntries()
+                    measurePhase(syncPhase) { pushEntries() }
                 } while (localEntries!!.size == MAX_PUSH)
             } else {
-                var itemList: ItemListResponse?
-                var stoken = synchronized(etebaseLocalCache) {
-                    etebaseLocalCache.collectionLoadStoken(cachedCollection.col.uid)
-                }
+                val stoken = etebaseLocalCache.collectionLoadStoken(cachedCollection.col.uid)
                 // Push local changes
                 var chunkPushItems: List<Item>
+                syncPhase = R.string.sync_phase_push_entries
+                measurePhase(syncPhase) { reconcilePushOutbox() }
                 do {
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_prepare_local
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    prepareLocal()
+                    measurePhase(syncPhase) { prepareLocal() }
 
                     /* Create push items out of local changes. */
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_create_local_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    chunkPushItems = createPushItems()
+                    chunkPushItems = measurePhase(syncPhase) { createPushItems() }
 
-                    if (Thread.interrupted())
-                        throw InterruptedException()
                     syncPhase = R.string.sync_phase_push_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    pushItems(chunkPushItems)
-                } while (chunkPushItems.size == MAX_PUSH)
-
-                do {
-                    if (Thread.interrupted())
-                        throw InterruptedException()
-                    syncPhase = R.string.sync_phase_fetch_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    itemList = fetchItems(stoken)
-                    if (itemList == null) {
-                        break
-                    }
-
-                    if (Thread.interrupted())
-                        throw InterruptedException()
-                    syncPhase = R.string.sync_phase_apply_remote_entries
-                    Logger.log.info("Sync phase: " + context.getString(syncPhase))
-                    applyRemoteItems(itemList)
-
-                    stoken = itemList.stoken
-                    if (stoken != null) {
-                        synchronized(etebaseLocalCache) {
-                            etebaseLocalCache.collectionSaveStoken(cachedCollection.col.uid, stoken)
+                    measurePhase(syncPhase) { pushItems(chunkPushItems) }
+                } while (chunkPushItems.size + numSkippedLocal >= pushLimit)
+
+                if (remoteCTag != stoken) {
+                    // The next page is fetched in the background while the current one is applied
+                    ItemListPrefetcher(itemMgr, stoken, remoteCTag, MAX_PREFETCH, { fetchPageSizer.size }).use { prefetcher ->
+                        while (true) {
+                            syncPhase = R.string.sync_phase_fetch_entries
+                            val itemList = measurePhase(syncPhase) { prefetcher.next() } ?: break
+
+                            syncPhase = R.string.sync_phase_apply_remote_entries
+                            measurePhase(syncPhase) { applyRemoteItems(itemList) }
+
+                            val colUid = cachedCollection.col.uid
+                            val items = itemList.data
+                            val bytes = items.sumOf { etebaseLocalCache.itemCachedSize(colUid, it.uid) }
+                            fetchPageSizer.onPage(prefetcher.lastLimit, items.size, bytes, prefetcher.lastMillis)
+                            // Inbound bytes are only counted here, as fetched, and not again when applied
+                            syncStats.phase(R.string.sync_phase_fetch_entries).let {
+                                it.items += items.size
+                                it.bytesIn += bytes
+                            }
+
+                            // Only save the stoken once the page has been applied
+                            val newStoken = itemList.stoken
+                            if (newStoken != null) {
+                                etebaseLocalCache.collectionSaveStoken(cachedCollection.col.uid, newStoken)
+                            }
                         }
                     }
-                } while (!itemList!!.isDone)
+                } else {
+                    Logger.log.info("Skipping fetch because local stoken == lastStoken (${remoteCTag})")
+                }
             }
 
             /* Cleanup and finalize changes */
-            if (Thread.interrupted())
-                throw InterruptedException()
             syncPhase = R.string.sync_phase_post_processing
-            Logger.log.info("Sync phase: " + context.getString(syncPhase))
-            postProcess()
+            measurePhase(syncPhase) { postProcess() }
 
             if (numDiscarded > 0) {
                 notifyDiscardedChange()
@@ -274,6 +301,7 @@ constructor(protected val context: Context, protected val account: Account, prot
 
             Logger.log.info("Finished sync with CTag=$remoteCTag")
         } catch (e: SSLHandshakeException) {
+            syncStats.error = e.toString()
             syncResult.stats.numIoExceptions++
 
             notificationManager.setThrowable(e)
@@ -281,28 +309,36 @@ constructor(protected val context: Context, protected val account: Account, prot
             detailsIntent.putExtra(KEY_ACCOUNT, account)
             notificationManager.notify(syncErrorTitle, context.getString(syncPhase))
         } catch (e: FileNotFoundException) {
+            syncStats.error = e.toString()
             notificationManager.setThrowable(e)
             val detailsIntent = notificationManager.detailsIntent
             detailsIntent.putExtra(KEY_ACCOUNT, account)
             notificationManager.notify(syncErrorTitle, context.getString(syncPhase))
         } catch (e: IOException) {
+            syncStats.error = e.toString()
             Logger.log.log(Level.WARNING, "I/O exception during sync, trying again later", e)
             syncResult.stats.numIoExceptions++
         } catch (e: Exceptions.ServiceUnavailableException) {
+            syncStats.error = e.toString()
             syncResult.stats.numIoExceptions++
             syncResult.delayUntil = if (e.retryAfter > 0) e.retryAfter else Constants.DEFAULT_RETRY_DELAY
         } catch (e: TemporaryServerErrorException) {
+            syncStats.error = e.toString()
             syncResult.stats.numIoExceptions++
             syncResult.delayUntil = Constants.DEFAULT_RETRY_DELAY
         } catch (e: ConnectionException) {
+            syncStats.error = e.toString()
             syncResult.stats.numIoExceptions++
             syncResult.delayUntil = Constants.DEFAULT_RETRY_DELAY
         } catch (e: InterruptedException) {
+            syncStats.error = e.toString()
             // Restart sync if interrupted
             syncResult.fullSyncRequested = true
         } catch (e: Exceptions.IgnorableHttpException) {
+            syncStats.error = e.toString()
             // Ignore
         } catch (e: Exception) {
+            syncStats.error = e.toString()
             if (e is Exceptions.UnauthorizedException || e is UnauthorizedException) {
                 syncResult.stats.numAuthExceptions++
             } else if (e is Exceptions.HttpException || e is HttpException) {
@@ -326,6 +362,11 @@ constructor(protected val context: Context, protected val account: Account, prot
 
             notificationManager.notify(syncErrorTitle, context.getString(syncPhase))
         } catch (e: OutOfMemoryError) {
+            syncStats.error = e.toString()
+            if (!isLegacy) {
+                fetchPageSizer.onOutOfMemory()
+                pushPageSizer.onOutOfMemory()
+            }
             if (e is Exceptions.HttpException) {
                 syncResult.stats.numParseExceptions++
             } else {
@@ -335,10 +376,104 @@ constructor(protected val context: Context, protected val account: Account, prot
             val detailsIntent = notificationManager.detailsIntent
             detailsIntent.putExtra(KEY_ACCOUNT, account)
             notificationManager.notify(syncErrorTitle, context.getString(syncPhase))
+        } finally {
+            if (!isLegacy) {
+                fetchPageSizer.save()
+                pushPageSizer.save()
+            }
+
+            syncStats.totalMillis = System.currentTimeMillis() - syncStats.startTime
+            syncStats.resultFinished(syncResult.stats)
+            SyncStatsListeners.syncFinished(syncStats)
         }
 
     }
 
+    /**
+     * Runs [block] as the [phase] of the sync, adding its timings and counters to [syncStats].
+     */
+    private inline fun <R> measurePhase(phase: Int, block: () -> R): R {
+        if (Thread.interrupted())
+            throw InterruptedException()
+        Logger.log.info("Sync phase: " + context.getString(phase))
+
+        val stats = syncStats.phase(phase)
+        val cacheHits = if (isLegacy) 0 else etebaseLocalCache.itemMemCacheHits
+        val cacheMisses = if (isLegacy) 0 else etebaseLocalCache.itemMemCacheMisses
+        val start = System.currentTimeMillis()
+        phaseStats = stats
+        try {
+            return block()
+        } finally {
+            phaseStats = idleStats
+            stats.runs++
+            stats.wallMillis += System.currentTimeMillis() - start
+            if (!isLegacy) {
+                stats.cacheHits += etebaseLocalCache.itemMemCacheHits - cacheHits
+                stats.cacheMisses += etebaseLocalCache.itemMemCacheMisses - cacheMisses
+            }
+            SyncStatsListeners.phaseFinished(syncStats, stats)
+        }
+    }
+
+    /**
+     * A fetched item decrypted and parsed by [parseItem] on the [parsePool].
+     */
+    private class ParsedItem(val content: String?, val parsed: Any?, val error: Exception?, val cryptoMillis: Long) {
+        // Items are processed twice if applying them as a batch failed
+        var counted = false
+    }
+
+    /**
+     * Decrypts and parses the non-deleted [items] of a page on the [parsePool], so the sync thread only has to
+     * write them to the provider, in order, while the following ones are still being parsed.
+     */
+    private fun parseItems(items: Array<Item>): List<Future<ParsedItem>?> {
+        return items.map { item ->
+            if (item.isDeleted) {
+                null
+            } else {
+                parsePool.submit(Callable {
+                    var cryptoMillis = 0L
+                    try {
+                        val start = System.currentTimeMillis()
+                        val content = item.content
+                        cryptoMillis = System.currentTimeMillis() - start
+                        val contentString = String(content)
+                        ParsedItem(contentString, parseItem(contentString), null, cryptoMillis)
+                    } catch (e: Exception) {
+                        // Thrown from processItem, so it fails the same way as when parsing on the sync thread
+                        ParsedItem(null, null, e, cryptoMillis)
+                    }
+                })
+            }
+        }
+    }
+
+    /**
+     * @return the decrypted content of [item], or null if it's deleted
+     */
+    private fun processParsedItem(item: Item, future: Future<ParsedItem>?): String? {
+        if (future == null) {
+            processItem(item, null)
+            return null
+        }
+
+        val parsed = try {
+            future.get()
+        } catch (e: ExecutionException) {
+            // Errors like OutOfMemoryError, exceptions are returned in the ParsedItem
+            throw e.cause ?: e
+        }
+        if (!parsed.counted) {
+            parsed.counted = true
+            phaseStats.cryptoMillis += parsed.cryptoMillis
+        }
+        parsed.error?.let { throw it }
+        processItem(item, parsed.parsed)
+        return parsed.content
+    }
+
     private fun notifyUserOnSync() {
         val changeNotification = context.defaultSharedPreferences.getBoolean(App.CHANGE_NOTIFICATION, true)
 
@@ -377,22 +512,136 @@ constructor(protected val context: Context, protected val account: Account, prot
         return true
     }
 
-    protected abstract fun processItem(item: Item)
+    /**
+     * Parses the decrypted content of a fetched item for [processItem]. Called on the [parsePool], concurrently
+     * for the items of a page, so it must not touch the local collection or any other state of the sync.
+     */
+    protected abstract fun parseItem(content: String): Any?
 
-    private fun persistItem(item: Item) {
-        synchronized(etebaseLocalCache) {
-            // FIXME: it's terrible that we are fetching and decrypting the item here - we really don't have to
-            val cached = etebaseLocalCache.itemGet(itemMgr, cachedCollection.col.uid, item.uid)
-            if (cached?.item?.etag != item.etag) {
-                syncItemsTotal++
+    /**
+     * Applies a fetched item to the local collection, with what [parseItem] returned for it, or null if it's deleted.
+     */
+    protected abstract fun processItem(item: Item, parsed: Any?)
 
-                if (item.isDeleted) {
-                    syncItemsDeleted++
-                } else {
-                    syncItemsChanged++
+    private fun getLocalIndex(): LocalCollectionIndex {
+        return localIndex ?: localCollection!!.buildIndex().also {
+            Logger.log.info("Indexed ${it.size} local resources")
+            localIndex = it
+        }
+    }
+
+    /**
+     * Like [LocalCollection.findByFilename], but uses the local index built on first use, so it usually
+     * doesn't need to query the provider. Meant for resources that are about to be written: the file name
+     * is looked up directly from now on.
+     */
+    protected fun findLocalByFilename(fileName: String): T? {
+        val index = getLocalIndex()
+        if (index.isStaleFileName(fileName)) {
+            return localCollection!!.findByFilename(fileName)
+        }
+
+        val entry = index.getByFileName(fileName)
+        index.invalidateFileName(fileName)
+        return if (entry != null) findLocalByIndexEntry(entry) else null
+    }
+
+    /**
+     * Same as [findLocalByFilename] but for [LocalCollection.findByUid].
+     */
+    protected fun findLocalByUid(uid: String): T? {
+        val index = getLocalIndex()
+        if (index.isStaleUid(uid)) {
+            return localCollection!!.findByUid(uid)
+        }
+
+        val entry = index.getByUid(uid)
+        index.invalidateUid(uid)
+        return if (entry != null) findLocalByIndexEntry(entry) else null
+    }
+
+    private fun findLocalByIndexEntry(entry: LocalCollectionIndex.Entry): T? {
+        if (prefetchedLocal.containsKey(entry.id)) {
+            return prefetchedLocal.remove(entry.id)
+        }
+        return localCollection!!.findByIndexEntry(entry)
+    }
+
+    /**
+     * Loads the local resources with these file names with a single query, so [findLocalByFilename] doesn't
+     * query them one by one. Only valid until [clearPrefetchedLocal], as they aren't updated by writes.
+     */
+    private fun prefetchLocal(fileNames: List<String>) {
+        val index = getLocalIndex()
+        val entries = fileNames.filter { !index.isStaleFileName(it) }.mapNotNull { index.getByFileName(it) }
+        if (entries.isNotEmpty()) {
+            val found = localCollection!!.findByIndexEntries(entries)
+            for (entry in entries) {
+                // Also the ones that are gone, so they aren't queried again
+                prefetchedLocal[entry.id] = found[entry.id]
+            }
+        }
+    }
+
+    private fun clearPrefetchedLocal() {
+        prefetchedLocal.clear()
+    }
+
+    /**
+     * Starts collecting the content provider writes of the following [processItem] calls, so they
+     * are committed together by [commitBatch] instead of one transaction per item.
+     *
+     * @return false if batched writes aren't supported, in which case items are written right away
+     */
+    protected open fun beginBatch(): Boolean {
+        return false
+    }
+
+    /**
+     * Returns the number of provider operations collected since [beginBatch].
+     */
+    protected open fun batchOperations(): Int {
+        return 0
+    }
+
+    /**
+     * Commits the writes collected since [beginBatch].
+     */
+    @Throws(ContactsStorageException::class, CalendarStorageException::class)
+    protected open fun commitBatch() {
+    }
+
+    /**
+     * Drops the writes collected since [beginBatch] without committing them.
+     */
+    protected open fun abortBatch() {
+    }
+
+    /**
+     * Stores the applied [items] of a page in the cache, all at once.
+     *
+     * @param contents the decrypted contents of the [items], so they're not decrypted again for the cache
+     */
+    private fun persistItems(items: List<Item>, contents: List<String?>) {
+        val colUid = cachedCollection.col.uid
+        etebaseLocalCache.withCollectionWriteLock(colUid) {
+            val changed = LinkedList<Item>()
+            val changedContents = HashMap<String, String?>()
+            for ((index, item) in items.withIndex()) {
+                val cachedEtag = etebaseLocalCache.itemGetEtag(itemMgr, colUid, item.uid)
+                if (cachedEtag != item.etag) {
+                    syncItemsTotal++
+
+                    if (item.isDeleted) {
+                        syncItemsDeleted++
+                    } else {
+                        syncItemsChanged++
+                    }
+                    changed.add(item)
+                    changedContents[item.uid] = contents[index]
                 }
-                etebaseLocalCache.itemSet(itemMgr, cachedCollection.col.uid, item)
             }
+            etebaseLocalCache.itemSetAll(itemMgr, colUid, changed, changedContents)
         }
     }
 
@@ -408,24 +657,13 @@ constructor(protected val context: Context, protected val account: Account, prot
         }
     }
 
+    private class PendingSyncEntry(val uid: String?, val syncEntry: SyncEntry, val error: String?)
+
+    /**
+     * Queues the entry to be written by the next [flushSyncEntries].
+     */
     private fun persistSyncEntry(uid: String?, syncEntry: SyncEntry, error: String?) {
-        val entry = EntryEntity()
-        entry.uid = uid
-        entry.content = syncEntry
-        entry.journal = journalEntity
-        try {
-            data.insert(entry)
-            val entryError = EntryErrorEntity()
-            entryError.entry = entry
-            entryError.error = error
-            data.insert(entryError)
-        } catch (e: io.requery.sql.StatementExecutionException) {
-            if (e.cause is java.sql.SQLIntegrityConstraintViolationException) {
-                Logger.log.warning("Tried inserting an existing entry ${uid}")
-            } else {
-                throw e
-            }
-        }
+        pendingSyncEntries.add(PendingSyncEntry(uid, syncEntry, error))
 
         when (syncEntry.action) {
             ADD -> syncItemsChanged++
@@ -434,6 +672,56 @@ constructor(protected val context: Context, protected val account: Account, prot
         }
     }
 
+    /**
+     * Writes the queued entries in one transaction. If that fails (e.g. because one of them already exists),
+     * falls back to writing them one by one.
+     */
+    private fun flushSyncEntries() {
+        if (pendingSyncEntries.isEmpty()) {
+            return
+        }
+
+        val entries = ArrayList(pendingSyncEntries)
+        pendingSyncEntries.clear()
+
+        try {
+            data.runInTransaction {
+                for (pending in entries) {
+                    insertSyncEntry(pending)
+                }
+            }
+        } catch (e: io.requery.PersistenceException) {
+            Logger.log.log(Level.WARNING, "Failed persisting ${entries.size} entries in one transaction, retrying one by one", e)
+
+            for (pending in entries) {
+                try {
+                    insertSyncEntry(pending)
+                } catch (e: io.requery.sql.StatementExecutionException) {
+                    if (e.cause is java.sql.SQLIntegrityConstraintViolationException) {
+                        Logger.log.warning("Tried inserting an existing entry ${pending.uid}")
+                    } else {
+                        throw e
+                    }
+                }
+            }
+        }
+    }
+
+    private fun insertSyncEntry(pending: PendingSyncEntry) {
+        val entry = EntryEntity()
+        entry.uid = pending.uid
+        entry.content = pending.syncEntry
+        entry.journal = cachedJournalEntity
+        data.insert(entry)
+
+        if (pending.error != null) {
+            val entryError = EntryErrorEntity()
+            entryError.entry = entry
+            entryError.error = pending.error
+            data.insert(entryError)
+        }
+    }
+
     @Throws(IOException::class, CalendarStorageException::class, ContactsStorageException::class)
     protected fun prepareFetch() {
         if (isLegacy) {
@@ -443,32 +731,92 @@ constructor(protected val context: Context, protected val account: Account, prot
         }
     }
 
-    private fun fetchItems(stoken: String?): ItemListResponse? {
-        if (remoteCTag != stoken) {
-            val ret = itemMgr.list(FetchOptions().stoken(stoken))
-            Logger.log.info("Fetched items. Done=${ret.isDone}")
-            return ret
-        } else {
-            Logger.log.info("Skipping fetch because local stoken == lastStoken (${remoteCTag})")
-            return null
+    private fun applyRemoteItems(itemList: ItemListResponse) {
+        val items = itemList.data
+        phaseStats.items += items.size
+        val parsed = parseItems(items)
+        try {
+            // The file names of the local resources are the uids of the items
+            prefetchLocal(items.map { it.uid })
+            applyParsedItems(items, parsed)
+        } finally {
+            clearPrefetchedLocal()
+            // Only does something if applying was interrupted or failed
+            for (future in parsed) {
+                future?.cancel(false)
+            }
         }
     }
 
-    private fun applyRemoteItems(itemList: ItemListResponse) {
-        val items = itemList.data
+    private fun applyParsedItems(items: Array<Item>, parsed: List<Future<ParsedItem>?>) {
         // Process new vcards from server
         val size = items.size
         var i = 0
 
-        for (item in items) {
+        // The items before it are committed and persisted
+        var chunkStart = 0
+
+        if (beginBatch()) {
+            val stats = syncResult.stats
+            var numInserts = stats.numInserts
+            var numUpdates = stats.numUpdates
+            var numDeletes = stats.numDeletes
+            val contents = ArrayList<String?>(size)
+
+            fun commitChunk(end: Int) {
+                commitBatch()
+                phaseStats.providerOperations += end - chunkStart
+                persistItems(items.asList().subList(chunkStart, end), contents.subList(chunkStart, end))
+                chunkStart = end
+                numInserts = stats.numInserts
+                numUpdates = stats.numUpdates
+                numDeletes = stats.numDeletes
+            }
+
+            try {
+                for ((index, item) in items.withIndex()) {
+                    if (Thread.interrupted()) {
+                        throw InterruptedException()
+                    }
+                    i++
+                    Logger.log.info("Processing (${i}/${size}) UID=${item.uid} Etag=${item.etag}")
+
+                    contents.add(processParsedItem(item, parsed[index]))
+
+                    // Large pages (or items) are committed in chunks, as the provider can only take so many
+                    // operations at once, and holds its database for as long as they take
+                    if (batchOperations() >= MAX_BATCH_OPERATIONS && index < size - 1) {
+                        commitChunk(index + 1)
+                        beginBatch()
+                    }
+                }
+                commitChunk(size)
+                return
+            } catch (e: InterruptedException) {
+                abortBatch()
+                throw e
+            } catch (e: Exception) {
+                // The failed chunk isn't persisted yet, so just redo it one item at a time to isolate the failure
+                Logger.log.log(Level.WARNING, "Failed applying items as a batch, retrying one by one", e)
+                abortBatch()
+                stats.numInserts = numInserts
+                stats.numUpdates = numUpdates
+                stats.numDeletes = numDeletes
+                i = chunkStart
+            }
+        }
+
+        for (index in chunkStart until size) {
             if (Thread.interrupted()) {
                 throw InterruptedException()
             }
+            val item = items[index]
             i++
             Logger.log.info("Processing (${i}/${size}) UID=${item.uid} Etag=${item.etag}")
 
-            processItem(item)
-            persistItem(item)
+            val content = processParsedItem(item, parsed[index])
+            phaseStats.providerOperations++
+            persistItems(listOf(item), listOf(content))
         }
     }
 
@@ -488,6 +836,7 @@ constructor(protected val context: Context, protected val account: Account, prot
                     break
                 }
             }
+            flushSyncEntries()
         } else {
             if ((remoteCTag != null) && (journalEntity.remoteLastUid == remoteCTag)) {
                 Logger.log.info("Skipping fetch because local lastUid == remoteLastUid (${remoteCTag})")
@@ -499,6 +848,7 @@ constructor(protected val context: Context, protected val account: Account, prot
         }
 
         Logger.log.info("Fetched " + remoteEntries!!.size.toString() + " entries")
+        phaseStats.items += remoteEntries!!.size
     }
 
     @Throws(IOException::class, ContactsStorageException::class, CalendarStorageException::class, InvalidCalendarException::class, InterruptedException::class)
@@ -509,26 +859,35 @@ constructor(protected val context: Context, protected val account: Account, prot
 
         syncItemsTotal += remoteEntries!!.size
 
-        for (entry in remoteEntries!!) {
-            if (Thread.interrupted()) {
-                throw InterruptedException()
-            }
-            i++
-            Logger.log.info("Processing (" + i.toString() + "/" + strTotal + ") " + entry.toString())
-
-            val cEntry = SyncEntry.fromJournalEntry(crypto, entry)
-            Logger.log.info("Processing resource for journal entry")
+        try {
+            for (entry in remoteEntries!!) {
+                if (Thread.interrupted()) {
+                    throw InterruptedException()
+                }
+                i++
+                Logger.log.info("Processing (" + i.toString() + "/" + strTotal + ") " + entry.toString())
 
-            var error: String? = null
-            try {
-                processSyncEntry(cEntry)
-            } catch (e: Exception) {
-                error = e.toString()
-            }
+                val start = System.currentTimeMillis()
+                val cEntry = SyncEntry.fromJournalEntry(crypto, entry)
+                phaseStats.cryptoMillis += System.currentTimeMillis() - start
+                Logger.log.info("Processing resource for journal entry")
+
+                var error: String? = null
+                try {
+                    processSyncEntry(cEntry)
+                } catch (e: Exception) {
+                    error = e.toString()
+                }
+                phaseStats.items++
+                phaseStats.providerOperations++
 
-            persistSyncEntry(entry.uid, cEntry, error)
+                persistSyncEntry(entry.uid, cEntry, error)
 
-            remoteCTag = entry.uid
+                remoteCTag = entry.uid
+            }
+        } finally {
+            // Whatever was applied locally has to be recorded
+            flushSyncEntries()
         }
     }
 
@@ -543,12 +902,14 @@ constructor(protected val context: Context, protected val account: Account, prot
                 pushLock.withLock {
                     journal!!.create(entries, remoteCTag)
                 }
+                phaseStats.items += entries.size
 
                 // Persist the entries after they've been pushed
                 for (entry in entries) {
                     val cEntry = SyncEntry.fromJournalEntry(crypto, entry)
                     persistSyncEntry(entry.uid, cEntry, null)
                 }
+                flushSyncEntries()
                 remoteCTag = entries[entries.size - 1].uid
                 pushed += entries.size
             }
@@ -560,6 +921,7 @@ constructor(protected val context: Context, protected val account: Account, prot
                     break
                 }
                 local.delete()
+                phaseStats.providerOperations++
             }
             if (left > 0) {
                 localDeleted = localDeleted?.drop(left)
@@ -572,6 +934,7 @@ constructor(protected val context: Context, protected val account: Account, prot
                 }
                 Logger.log.info("Added/changed resource with UUID: " + local.uuid)
                 local.clearDirty(local.uuid)
+                phaseStats.providerOperations++
             }
             if (left > 0) {
                 localDirty = localDirty.drop(left)
@@ -590,14 +953,27 @@ constructor(protected val context: Context, protected val account: Account, prot
         try {
             if (!chunkPushItems.isEmpty()) {
                 val items = chunkPushItems
+                val colUid = cachedCollection.col.uid
+                val outbox = etebaseLocalCache.getPushOutbox(colUid)
+                etebaseLocalCache.withCollectionWriteLock(colUid) {
+                    outbox.prepare(itemMgr, items, pushContentDigests)
+                }
+
+                val start = System.currentTimeMillis()
                 itemMgr.batch(items.toTypedArray())
+                pushPageSizer.onPage(pushLimit, items.size, pushBytes, System.currentTimeMillis() - start)
+                phaseStats.items += items.size
+                phaseStats.bytesOut += pushBytes
 
                 // Persist the items
-                synchronized(etebaseLocalCache) {
-                    val colUid = cachedCollection.col.uid
-
+                etebaseLocalCache.withCollectionWriteLock(colUid) {
+                    outbox.commit(items, pushContentDigests)
+                    val contents = items.associate { it.uid to if (it.isDeleted) null else pushContents[it.uid] }
+                    etebaseLocalCache.itemSetAll(itemMgr, colUid, items, contents, pushContentDigests)
                     for (item in items) {
-                        etebaseLocalCache.itemSet(itemMgr, colUid, item)
+                        pushContentDigests.remove(item.uid)
+                        pushContents.remove(item.uid)
+                        outbox.remove(item.uid)
                     }
                 }
 
@@ -611,6 +987,7 @@ constructor(protected val context: Context, protected val account: Account, prot
                     break
                 }
                 local.delete()
+                phaseStats.providerOperations++
             }
             if (left > 0) {
                 localDeleted = localDeleted?.drop(left)
@@ -625,6 +1002,7 @@ constructor(protected val context: Context, protected val account: Account, prot
                 }
                 Logger.log.info("Added/changed resource with filename: " + local.fileName)
                 local.clearDirty(chunkPushItems[i].etag)
+                phaseStats.providerOperations++
                 i++
             }
             if (left > 0) {
@@ -638,77 +1016,264 @@ constructor(protected val context: Context, protected val account: Account, prot
         }
     }
 
+    /**
+     * Finishes the pushes of an interrupted sync recorded in the [PushOutbox]. Items the server already has are
+     * only stored in the cache, so [createPushItems] marks their unchanged local resources as clean, and the rest
+     * are uploaded as they were prepared, without serializing and encrypting them again.
+     */
+    private fun reconcilePushOutbox() {
+        val colUid = cachedCollection.col.uid
+        val outbox = etebaseLocalCache.getPushOutbox(colUid)
+        val committed = LinkedList<Item>()
+        val prepared = HashMap<String, Item>()
+        val digests = HashMap<String, String>()
+        etebaseLocalCache.withCollectionWriteLock(colUid) {
+            if (outbox.isEmpty()) {
+                return
+            }
+
+            for (entry in outbox.entries()) {
+                val item = try {
+                    entry.load(itemMgr)
+                } catch (e: Exception) {
+                    Logger.log.log(Level.WARNING, "Dropping unreadable outbox entry ${entry.itemUid}", e)
+                    outbox.remove(entry.itemUid)
+                    continue
+                }
+                entry.contentDigest?.let { digests[item.uid] = it }
+                if (entry.committed) {
+                    committed.add(item)
+                } else {
+                    prepared[item.uid] = item
+                }
+            }
+        }
+
+        // The connection may have failed after the server accepted them
+        if (prepared.isNotEmpty()) {
+            for (remote in itemMgr.fetchMulti(prepared.keys.toTypedArray(), FetchOptions()).data) {
+                val item = prepared[remote.uid] ?: continue
+                if (remote.etag == item.etag) {
+                    prepared.remove(remote.uid)
+                    committed.add(item)
+                }
+            }
+        }
+
+        if (prepared.isNotEmpty()) {
+            val pending = prepared.values.toTypedArray()
+            try {
+                itemMgr.batch(pending)
+                committed.addAll(pending)
+                phaseStats.items += pending.size
+            } catch (e: ConflictException) {
+                // Changed on the server since, they are prepared again from the local resources after fetching
+                Logger.log.log(Level.INFO, "Dropping ${pending.size} outbox items that conflict with the server", e)
+            }
+        }
+
+        Logger.log.info("Reconciled push outbox, ${committed.size} items pushed")
+        etebaseLocalCache.withCollectionWriteLock(colUid) {
+            etebaseLocalCache.itemSetAll(itemMgr, colUid, committed, emptyMap(), digests)
+            for (entry in outbox.entries()) {
+                outbox.remove(entry.itemUid)
+            }
+        }
+    }
+
     private fun itemUpdateMtime(item: Item) {
         val meta = item.meta
         meta.setMtime(System.currentTimeMillis())
         item.meta = meta
     }
 
+    /**
+     * Returns the item to upload [local] as, without its content, see [setItemContents]. Never the cached
+     * instance, so it can be changed on the [parsePool].
+     *
+     * New resources get their file name and UID here, so they have to be serialized after this.
+     */
     private fun prepareLocalItemForUpload(colUid: String, local: T): Item {
-        val cacheItem = if (local.fileName != null) etebaseLocalCache.itemGet(itemMgr, colUid, local.fileName!!) else null
-        val item: Item
-        if (cacheItem != null) {
-            item = cacheItem.item
-            itemUpdateMtime(item)
-        } else {
-            val uid = local.uuid ?: UUID.randomUUID().toString()
-            val meta = ItemMetadata()
-            meta.name = uid
-            meta.mtime = System.currentTimeMillis()
-            item = itemMgr.create(meta, "")
+        return cachedItemForUpload(colUid, local) ?: newItemForUpload(local)
+    }
 
-            local.prepareForUpload(item.uid, uid)
-        }
+    /**
+     * Like [prepareLocalItemForUpload] for resources that are already in the cache, returns null for the others.
+     */
+    private fun cachedItemForUpload(colUid: String, local: T): Item? {
+        val fileName = local.fileName ?: return null
+        val cacheItem = etebaseLocalCache.itemGet(itemMgr, colUid, fileName) ?: return null
+        // The cached instance is shared with other readers of the memory cache, so only change a copy
+        val item = itemMgr.cacheLoad(itemMgr.cacheSaveWithContent(cacheItem.item))
+        itemUpdateMtime(item)
+        return item
+    }
 
-        try {
-            item.setContent(local.content)
-        } catch (e: Exception) {
-            Logger.log.warning("Failed creating local entry ${local.uuid}")
-            if (local is LocalContact) {
-                Logger.log.warning("Contact with title ${local.contact?.displayName}")
-            } else if (local is LocalEvent) {
-                Logger.log.warning("Event with title ${local.event?.summary}")
-            } else if (local is LocalTask) {
-                Logger.log.warning("Task with title ${local.task?.summary}")
-            }
-            throw e
-        }
+    private fun newItemForUpload(local: T): Item {
+        val uid = local.uuid ?: UUID.randomUUID().toString()
+        val meta = ItemMetadata()
+        meta.name = uid
+        meta.mtime = System.currentTimeMillis()
+        val item = itemMgr.create(meta, "")
 
+        local.prepareForUpload(item.uid, uid)
         return item
     }
 
+    /**
+     * Encrypts the [contents] of [locals] into their [items] on the [parsePool]. The items have to be private to
+     * this sync, i.e. new or copies from [prepareLocalItemForUpload], as they are changed without any lock held.
+     */
+    private fun setItemContents(locals: List<T>, items: List<Item>, contents: List<String>) {
+        val cryptoMillis = parallelMap(parsePool, items.indices.toList()) { i ->
+            val local = locals[i]
+            try {
+                val start = System.currentTimeMillis()
+                items[i].setContent(contents[i])
+                System.currentTimeMillis() - start
+            } catch (e: Exception) {
+                Logger.log.warning("Failed creating local entry ${local.uuid}")
+                if (local is LocalContact) {
+                    Logger.log.warning("Contact with title ${local.contact?.displayName}")
+                } else if (local is LocalEvent) {
+                    Logger.log.warning("Event with title ${local.event?.summary}")
+                } else if (local is LocalTask) {
+                    Logger.log.warning("Task with title ${local.task?.summary}")
+                }
+                throw e
+            }
+        }
+        phaseStats.cryptoMillis += cryptoMillis.sum()
+        phaseStats.items += items.size
+    }
+
+    /**
+     * Creates the next page of items to push. Serializing the local resources and encrypting them is what takes
+     * the time with large changes (e.g. imports), so both are done on the [parsePool] for the whole page at once,
+     * while the cache lookups and provider writes stay on the sync thread. The items are returned in the order of
+     * [localDeleted] and then [localDirty], which [pushItems] relies on.
+     */
     private fun createPushItems(): List<Item> {
         val ret = LinkedList<Item>()
         val colUid = cachedCollection.col.uid
+        pushContentDigests.clear()
+        pushContents.clear()
+        numSkippedLocal = 0
+        pushBytes = 0
 
-        synchronized(etebaseLocalCache) {
-            for (local in localDeleted!!) {
-                val item = prepareLocalItemForUpload(colUid, local)
-                item.delete()
+        val alreadyDeleted = LinkedList<T>()
+        val toDelete = LinkedList<T>()
+        for (local in localDeleted!!) {
+            val fileName = local.fileName
+            if (fileName != null && etebaseLocalCache.itemGet(itemMgr, colUid, fileName)?.item?.isDeleted == true) {
+                // e.g. the deletion was pushed by an interrupted sync and reconciled from the outbox
+                Logger.log.fine("$fileName already deleted on the server")
+                local.delete()
+                phaseStats.providerOperations++
+                alreadyDeleted.add(local)
+                continue
+            }
 
-                ret.add(item)
+            toDelete.add(local)
+            if (toDelete.size == pushLimit) {
+                break
+            }
+        }
 
-                if (ret.size == MAX_PUSH) {
-                    return ret
-                }
+        if (toDelete.isNotEmpty()) {
+            val contents = serializeForPush(parsePool, toDelete) { prepareLocalItemForUpload(colUid, it) }
+            val items = contents.map { it.prepared }
+            setItemContents(toDelete, items, contents.map { it.content })
+            for (item in items) {
+                item.delete()
             }
+            ret.addAll(items)
         }
 
-        synchronized(etebaseLocalCache) {
-            for (local in localDirty) {
-                val item = prepareLocalItemForUpload(colUid, local)
+        if (alreadyDeleted.isNotEmpty()) {
+            localDeleted = localDeleted!!.filter { it !in alreadyDeleted }
+        }
+        if (ret.size == pushLimit) {
+            numSkippedLocal = alreadyDeleted.size
+            return ret
+        }
 
-                ret.add(item)
+        // Resources are often marked as dirty without their content changing (e.g. metadata only changes), so
+        // the ones whose content is the same as the one we last pushed are only marked as clean again.
+        val unchanged = LinkedList<T>()
+        val dirty = localDirty.iterator()
+        while (ret.size < pushLimit && dirty.hasNext()) {
+            // As many as are still missing from the page, fewer are left if some turn out to be unchanged
+            val window = LinkedList<T>()
+            while (window.size < pushLimit - ret.size && dirty.hasNext()) {
+                window.add(dirty.next())
+            }
+            // Resources that aren't in the cache get their UID before being serialized, the others are only
+            // prepared once we know that their content changed
+            val contents = serializeForPush(parsePool, window) { local ->
+                val fileName = local.fileName
+                if (fileName == null || etebaseLocalCache.itemGetEtag(itemMgr, colUid, fileName) == null) {
+                    newItemForUpload(local)
+                } else {
+                    null
+                }
+            }
 
-                if (ret.size == MAX_PUSH) {
-                    return ret
+            val locals = LinkedList<T>()
+            val items = LinkedList<Item>()
+            val itemContents = LinkedList<String>()
+            for ((i, local) in window.withIndex()) {
+                val prepared = contents[i].prepared
+                var content = contents[i].content
+                var digest = contents[i].digest
+
+                val fileName = local.fileName
+                if (prepared == null && fileName != null && etebaseLocalCache.itemGetContentDigest(colUid, fileName) == digest) {
+                    val etag = etebaseLocalCache.itemGetEtag(itemMgr, colUid, fileName)
+                    if (etag != null) {
+                        Logger.log.fine("Content of $fileName unchanged, not uploading")
+                        local.clearDirty(etag)
+                        phaseStats.providerOperations++
+                        unchanged.add(local)
+                        continue
+                    }
                 }
+
+                val item = prepared ?: cachedItemForUpload(colUid, local) ?: newItemForUpload(local).also {
+                    // Gone from the cache since, so it got a new UID and has to be serialized again
+                    content = local.content
+                    digest = contentDigest(content)
+                }
+                pushContentDigests[item.uid] = digest
+                pushContents[item.uid] = content
+                pushBytes += content.length
+
+                locals.add(local)
+                items.add(item)
+                itemContents.add(content)
             }
+
+            setItemContents(locals, items, itemContents)
+            ret.addAll(items)
+        }
+
+        numSkippedLocal = alreadyDeleted.size + unchanged.size
+        if (unchanged.isNotEmpty()) {
+            Logger.log.info("Skipped uploading ${unchanged.size} unchanged resources")
+            // pushItems() relies on localDirty having the same order as the items we return
+            localDirty = localDirty.filter { it !in unchanged }
         }
 
         return ret
     }
 
+    private fun encryptEntry(tmp: JournalEntryManager.Entry, entry: SyncEntry, previousEntry: JournalEntryManager.Entry?) {
+        val start = System.currentTimeMillis()
+        tmp.update(crypto, entry.toJson(), previousEntry)
+        phaseStats.cryptoMillis += System.currentTimeMillis() - start
+        phaseStats.items++
+    }
+
     @Throws(CalendarStorageException::class, ContactsStorageException::class, IOException::class)
     private fun createLocalEntries() {
         localEntries = LinkedList()
@@ -719,7 +1284,7 @@ constructor(protected val context: Context, protected val account: Account, prot
         for (local in localDeleted!!) {
             val entry = SyncEntry(local.content, SyncEntry.Actions.DELETE)
             val tmp = JournalEntryManager.Entry()
-            tmp.update(crypto, entry.toJson(), previousEntry)
+            encryptEntry(tmp, entry, previousEntry)
             previousEntry = tmp
             localEntries!!.add(previousEntry)
 
@@ -739,7 +1304,7 @@ constructor(protected val context: Context, protected val account: Account, prot
             try {
                 val entry = SyncEntry(local.content, action)
                 val tmp = JournalEntryManager.Entry()
-                tmp.update(crypto, entry.toJson(), previousEntry)
+                encryptEntry(tmp, entry, previousEntry)
                 previousEntry = tmp
                 localEntries!!.add(previousEntry)
 
@@ -765,7 +1330,9 @@ constructor(protected val context: Context, protected val account: Account, prot
     @Throws(CalendarStorageException::class, ContactsStorageException::class, FileNotFoundException::class)
     protected open fun prepareLocal() {
         localDeleted = processLocallyDeleted()
-        localDirty = localCollection!!.findDirty(MAX_PUSH)
+        pushLimit = if (isLegacy) MAX_PUSH else pushPageSizer.size
+        localDirty = localCollection!!.findDirty(pushLimit)
+        phaseStats.items += localDeleted!!.size + localDirty.size
         // This is done after fetching the local dirty so all the ones we are using will be prepared
         prepareDirty()
     }
@@ -856,9 +1423,95 @@ constructor(protected val context: Context, protected val account: Account, prot
     }
 
     companion object {
+        // Page sizes of legacy journals, etebase collections adapt theirs with a PageSizer
         private val MAX_FETCH = 50
         private val MAX_PUSH = 30
+        // How many fetched pages may wait to be applied
+        private val MAX_PREFETCH = 1
+        // Provider operations per batch, a bit below the 500 operations a provider allows between yield points as
+        // the ones of an item aren't split
+        private val MAX_BATCH_OPERATIONS = 400
 
         private val pushLock = ReentrantLock()
+
+        // Parses fetched items and serializes pushed ones for all syncs, leaving a core for the sync threads
+        private val PARSE_THREADS = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 4)
+        private val parsePool: ExecutorService by lazy {
+            Executors.newFixedThreadPool(PARSE_THREADS) { runnable ->
+                Thread(runnable, "SyncManager-parse").apply {
+                    isDaemon = true
+                    priority = Thread.NORM_PRIORITY - 1
+                }
+            }
+        }
+
+        /**
+         * Runs [block] for each of [values] on [executor] and returns the results in order. The first failure is
+         * rethrown after cancelling what didn't run yet.
+         */
+        internal fun <V, R> parallelMap(executor: ExecutorService, values: List<V>, block: (V) -> R): List<R> {
+            val futures = values.map { value -> executor.submit(Callable { block(value) }) }
+            try {
+                return futures.map { future ->
+                    try {
+                        future.get()
+                    } catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+            } finally {
+                for (future in futures) {
+                    future.cancel(false)
+                }
+            }
+        }
+
+        /**
+         * A local resource of a push page and its content, see [serializeForPush].
+         */
+        internal class PushContent<P>(val prepared: P, val content: String, val digest: String)
+
+        /**
+         * Runs [prepare] for each of [locals] on the calling thread, and then serializes them and digests their
+         * content (see [contentDigest]) on [executor]. Preparing comes first, as that's where new resources get
+         * the UID their content includes.
+         */
+        internal fun <L : LocalResource<*>, P> serializeForPush(executor: ExecutorService, locals: List<L>, prepare: (L) -> P): List<PushContent<P>> {
+            val prepared = locals.map(prepare)
+            val contents = parallelMap(executor, locals) { local ->
+                val content = local.content
+                Pair(content, contentDigest(content))
+            }
+            return locals.indices.map { i -> PushContent(prepared[i], contents[i].first, contents[i].second) }
+        }
+
+        // Properties that are regenerated every time a resource is serialized
+        private val VOLATILE_PROPERTIES = arrayOf("DTSTAMP", "PRODID", "REV")
+
+        /**
+         * SHA-256 of a resource's iCalendar/vCard content, ignoring [VOLATILE_PROPERTIES].
+         */
+        internal fun contentDigest(content: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            var skipping = false
+            for (line in content.lineSequence()) {
+                if (line.startsWith(" ") || line.startsWith("\t")) {
+                    // Folded continuation of the previous line
+                    if (skipping) {
+                        continue
+                    }
+                } else {
+                    skipping = VOLATILE_PROPERTIES.any { name ->
+                        line.startsWith(name, ignoreCase = true) && line.length > name.length && (line[name.length] == ':' || line[name.length] == ';')
+                    }
+                    if (skipping) {
+                        continue
+                    }
+                }
+                digest.update(line.toByteArray(Charsets.UTF_8))
+                digest.update('\n'.toByte())
+            }
+            return digest.digest().joinToString("") { String.format("%02x", it) }
+        }
     }
 }
@@ -0,0 +1,175 @@
+package com.etesync.syncadapter.syncadapter
+
+import android.content.Context
+import android.content.SyncStats as SyncResultStats
+import com.etesync.syncadapter.log.Logger
+import java.text.DateFormat
+import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.logging.Level
+
+/**
+ * Counters of a single sync phase, summed over all the times the phase ran during a sync.
+ * The cache hits are those of the account's whole local cache, so they include concurrent syncs.
+ */
+class SyncPhaseStats(val phase: Int) {
+    var runs = 0
+    var wallMillis = 0L
+    var items = 0
+    var bytesIn = 0L
+    var bytesOut = 0L
+    var providerOperations = 0
+    var cryptoMillis = 0L
+    var cacheHits = 0
+    var cacheMisses = 0
+
+    fun format(context: Context): String {
+        return String.format(Locale.US, "%-28s %6dms x%-3d items=%-5d in=%-8d out=%-8d provider ops=%-5d crypto=%dms cache=%d/%d",
+                context.getString(phase), wallMillis, runs, items, bytesIn, bytesOut, providerOperations, cryptoMillis,
+                cacheHits, cacheHits + cacheMisses)
+    }
+}
+
+/**
+ * Timings and counters of a single collection sync, see [SyncPhaseStats].
+ */
+class SyncStats(val accountName: String, val authority: String, val collectionUid: String) {
+    val startTime = System.currentTimeMillis()
+    var totalMillis = 0L
+    var collectionName: String? = null
+    /** the exception the sync failed with, if any */
+    var error: String? = null
+
+    /** what this sync added to the [android.content.SyncResult] counters */
+    var numInserts = 0L
+    var numUpdates = 0L
+    var numDeletes = 0L
+    var numSkippedEntries = 0L
+    var numIoExceptions = 0L
+    var numParseExceptions = 0L
+    var numAuthExceptions = 0L
+
+    private var resultStart: LongArray? = null
+
+    private val _phases = LinkedHashMap<Int, SyncPhaseStats>()
+    val phases: Collection<SyncPhaseStats>
+        get() = _phases.values
+
+    fun phase(phase: Int): SyncPhaseStats {
+        return _phases.getOrPut(phase) { SyncPhaseStats(phase) }
+    }
+
+    /** the items of [phase], without adding it if it didn't run */
+    fun items(phase: Int): Int {
+        return _phases[phase]?.items ?: 0
+    }
+
+    /** the (encrypted) bytes fetched from the server, which only the fetch phase counts */
+    val bytesIn: Long
+        get() = phases.sumOf { it.bytesIn }
+
+    val bytesOut: Long
+        get() = phases.sumOf { it.bytesOut }
+
+    /**
+     * Snapshots the counters of a (possibly shared) sync result at the start of the sync, see [resultFinished].
+     */
+    fun resultStarted(stats: SyncResultStats) {
+        resultStart = counters(stats)
+    }
+
+    fun resultFinished(stats: SyncResultStats) {
+        val start = resultStart ?: return
+        val end = counters(stats)
+        numInserts = end[0] - start[0]
+        numUpdates = end[1] - start[1]
+        numDeletes = end[2] - start[2]
+        numSkippedEntries = end[3] - start[3]
+        numIoExceptions = end[4] - start[4]
+        numParseExceptions = end[5] - start[5]
+        numAuthExceptions = end[6] - start[6]
+    }
+
+    private fun counters(stats: SyncResultStats): LongArray {
+        return longArrayOf(stats.numInserts, stats.numUpdates, stats.numDeletes, stats.numSkippedEntries,
+                stats.numIoExceptions, stats.numParseExceptions, stats.numAuthExceptions)
+    }
+
+    fun format(context: Context): String {
+        val ret = StringBuilder()
+        ret.append(DateFormat.getDateTimeInstance().format(Date(startTime)))
+                .append(" ").append(accountName).append(" ").append(authority).append(" ").append(collectionUid)
+                .append(": ").append(totalMillis).append("ms")
+        error?.let { ret.append(", failed: ").append(it) }
+        ret.append("\n")
+        for (phase in phases) {
+            ret.append("  ").append(phase.format(context)).append("\n")
+        }
+        return ret.toString()
+    }
+}
+
+interface SyncStatsListener {
+    fun onPhaseFinished(stats: SyncStats, phase: SyncPhaseStats) {}
+
+    fun onSyncFinished(stats: SyncStats)
+}
+
+/**
+ * Listeners notified of the [SyncStats] of every collection sync, called on the syncing thread.
+ */
+object SyncStatsListeners {
+    private val listeners = CopyOnWriteArrayList<SyncStatsListener>(listOf(RecentSyncStats))
+
+    fun add(listener: SyncStatsListener) {
+        listeners.add(listener)
+    }
+
+    fun remove(listener: SyncStatsListener) {
+        listeners.remove(listener)
+    }
+
+    internal fun phaseFinished(stats: SyncStats, phase: SyncPhaseStats) {
+        for (listener in listeners) {
+            try {
+                listener.onPhaseFinished(stats, phase)
+            } catch (e: Exception) {
+                Logger.log.log(Level.WARNING, "Sync stats listener failed", e)
+            }
+        }
+    }
+
+    internal fun syncFinished(stats: SyncStats) {
+        for (listener in listeners) {
+            try {
+                listener.onSyncFinished(stats)
+            } catch (e: Exception) {
+                Logger.log.log(Level.WARNING, "Sync stats listener failed", e)
+            }
+        }
+    }
+}
+
+/**
+ * Keeps the stats of the last few syncs in memory, for the debug info.
+ */
+object RecentSyncStats : SyncStatsListener {
+    private const val MAX_SYNCS = 20
+
+    private val recent = LinkedList<SyncStats>()
+
+    override fun onSyncFinished(stats: SyncStats) {
+        synchronized(recent) {
+            recent.addLast(stats)
+            if (recent.size > MAX_SYNCS) {
+                recent.removeFirst()
+            }
+        }
+    }
+
+    fun get(): List<SyncStats> {
+        synchronized(recent) {
+            return ArrayList(recent)
+        }
+    }
+}
@@ -64,9 +64,10 @@ class TasksSyncAdapterService: SyncAdapterService() {
             }
             val principal = accountSettings.uri?.toHttpUrlOrNull()!!
 
-            for (taskList in AndroidTaskList.find(account, taskProvider, LocalTaskList.Factory, "${TaskContract.TaskLists.SYNC_ENABLED}!=0", null)) {
+            val taskLists = AndroidTaskList.find(account, taskProvider, LocalTaskList.Factory, "${TaskContract.TaskLists.SYNC_ENABLED}!=0", null)
+            syncConcurrently(taskLists, accountSettings.syncParallelism, syncResult) { taskList, taskListSyncResult ->
                 Logger.log.info("Synchronizing task list #${taskList.id} [${taskList.syncId}]")
-                TasksSyncManager(context, account, accountSettings, extras, authority, syncResult, taskList, principal).use {
+                TasksSyncManager(context, account, accountSettings, extras, authority, taskListSyncResult, taskList, principal).use {
                     it.performSync()
                 }
             }
@@ -77,14 +78,10 @@ class TasksSyncAdapterService: SyncAdapterService() {
         private fun updateLocalTaskLists(provider: TaskProvider, account: Account, settings: AccountSettings) {
             val remote = HashMap<String, CachedCollection>()
             val etebaseLocalCache = EtebaseLocalCache.getInstance(context, account.name)
-            val collections: List<CachedCollection>
-            synchronized(etebaseLocalCache) {
-                val httpClient = HttpClient.Builder(context, settings).setForeground(false).build()
-                val etebase = EtebaseLocalCache.getEtebase(context, httpClient.okHttpClient, settings)
-                val colMgr = etebase.collectionManager
+            val etebase = EtebaseLocalCache.getEtebase(context, settings)
+            val colMgr = etebase.collectionManager
 
-                collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_TASKS }
-            }
+            val collections = etebaseLocalCache.collectionList(colMgr).filter { it.collectionType == Constants.ETEBASE_TYPE_TASKS }
 
             for (collection in collections) {
                 remote[collection.col.uid] = collection
@@ -12,6 +12,8 @@ import android.accounts.Account
 import android.content.Context
 import android.content.SyncResult
 import android.os.Bundle
+import at.bitfire.ical4android.BatchOperation
+import at.bitfire.ical4android.CalendarStorageException
 import at.bitfire.ical4android.Task
 import com.etebase.client.Item
 import com.etesync.syncadapter.AccountSettings
@@ -39,6 +41,7 @@ class TasksSyncManager(
         taskList: LocalTaskList,
         private val remote: HttpUrl
 ): SyncManager<LocalTask>(context, account, accountSettings, extras, authority, syncResult, taskList.url!!, CollectionInfo.Type.TASKS, account.name) {
+    private var batch: BatchOperation? = null
 
     override val syncErrorTitle: String
         get() = context.getString(R.string.sync_error_tasks, account.name)
@@ -65,32 +68,61 @@ class TasksSyncManager(
         return true
     }
 
+    override fun beginBatch(): Boolean {
+        batch = BatchOperation(localTaskList().provider.client)
+        return true
+    }
+
+    override fun batchOperations(): Int {
+        return batch?.nextBackrefIdx() ?: 0
+    }
+
+    @Throws(CalendarStorageException::class)
+    override fun commitBatch() {
+        val batch = this.batch ?: return
+        this.batch = null
+        batch.commit()
+    }
+
+    override fun abortBatch() {
+        batch = null
+    }
+
     // helpers
 
     private fun localTaskList(): LocalTaskList {
         return localCollection as LocalTaskList
     }
 
-    override fun processItem(item: Item) {
-        val local = localCollection!!.findByFilename(item.uid)
+    override fun parseItem(content: String): Any? {
+        val inputReader = StringReader(content)
 
-        if (!item.isDeleted) {
-            val inputReader = StringReader(String(item.content))
-
-            val tasks = Task.tasksFromReader(inputReader)
-            if (tasks.size == 0) {
-                Logger.log.warning("Received VCard without data, ignoring")
-                return
-            } else if (tasks.size > 1) {
-                Logger.log.warning("Received multiple VCALs, using first one")
-            }
+        val tasks = Task.tasksFromReader(inputReader)
+        if (tasks.size == 0) {
+            Logger.log.warning("Received VCard without data, ignoring")
+            return null
+        } else if (tasks.size > 1) {
+            Logger.log.warning("Received multiple VCALs, using first one")
+        }
 
-            val task = tasks[0]
+        return tasks[0]
+    }
+
+    override fun processItem(item: Item, parsed: Any?) {
+        val local = findLocalByFilename(item.uid)
+
+        if (!item.isDeleted) {
+            val task = parsed as Task? ?: return
             processTask(item, task, local)
         } else {
             if (local != null) {
                 Logger.log.info("Removing local record #" + local.id + " which has been deleted on the server")
-                local.delete()
+                val batch = this.batch
+                if (batch != null) {
+                    local.deleteInBatch(batch)
+                } else {
+                    local.delete()
+                }
             } else {
                 Logger.log.warning("Tried deleting a non-existent record: " + item.uid)
             }
@@ -109,7 +141,7 @@ class TasksSyncManager(
         }
 
         val event = tasks[0]
-        val local = localCollection!!.findByUid(event.uid!!)
+        val local = findLocalByUid(event.uid!!)
 
         if (cEntry.isAction(SyncEntry.Actions.ADD) || cEntry.isAction(SyncEntry.Actions.CHANGE)) {
             legacyProcessTask(event, local)
@@ -207,6 +207,7 @@ class AccountActivity : BaseActivity(), Toolbar.OnMenuItemClickListener, PopupMe
                         .setPositiveButton(android.R.string.yes) { _, _ -> }.create()
                 dialog.show()
             }
+            R.id.sync_history -> startActivity(SyncHistoryActivity.newIntent(this, account))
             R.id.invitations -> {
                 val intent = InvitationsActivity.newIntent(this, account)
                 startActivity(intent)
@@ -419,25 +420,23 @@ class AccountActivity : BaseActivity(), Toolbar.OnMenuItemClickListener, PopupMe
                 CollectionInfo.Type.TASKS -> ETEBASE_TYPE_TASKS
             }
 
-            synchronized(etebaseLocalCache) {
-                return etebaseLocalCache.collectionList(colMgr).map {
-                    val meta = it.meta
-                    val collectionType = it.collectionType
+            return etebaseLocalCache.collectionList(colMgr).map {
+                val meta = it.meta
+                val collectionType = it.collectionType
 
-                    if (strType != collectionType) {
-                        return@map null
-                    }
+                if (strType != collectionType) {
+                    return@map null
+                }
 
-                    val accessLevel = it.col.accessLevel
-                    val isReadOnly = accessLevel == CollectionAccessLevel.ReadOnly
-                    val isAdmin = accessLevel == CollectionAccessLevel.Admin
+                val accessLevel = it.col.accessLevel
+                val isReadOnly = accessLevel == CollectionAccessLevel.ReadOnly
+                val isAdmin = accessLevel == CollectionAccessLevel.Admin
 
-                    val metaColor = meta.color
-                    val color = if (!metaColor.isNullOrBlank()) LocalCalendar.parseColor(metaColor) else null
-                    CollectionListItemInfo(it.col.uid, type, meta.name!!, meta.description
-                            ?: "", color, isReadOnly, isAdmin, null)
-                }.filterNotNull()
-            }
+                val metaColor = meta.color
+                val color = if (!metaColor.isNullOrBlank()) LocalCalendar.parseColor(metaColor) else null
+                CollectionListItemInfo(it.col.uid, type, meta.name!!, meta.description
+                        ?: "", color, isReadOnly, isAdmin, null)
+            }.filterNotNull()
         }
 
         private fun doLoad(): AccountActivity.AccountInfo {
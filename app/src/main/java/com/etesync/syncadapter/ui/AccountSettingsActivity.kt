@@ -173,6 +173,21 @@ class AccountSettingsFragment() : PreferenceFragmentCompat(), LoaderManager.Load
             loaderManager.restartLoader(0, arguments, this@AccountSettingsFragment)
             false
         }
+
+        val prefTimeRangePastDays = findPreference("time_range_past_days") as EditTextPreference
+        val pastDays = settings.timeRangePastDays
+        if (pastDays != null) {
+            prefTimeRangePastDays.text = pastDays.toString()
+            prefTimeRangePastDays.summary = getString(R.string.settings_sync_time_range_past_days, pastDays)
+        } else {
+            prefTimeRangePastDays.text = AccountSettings.DEFAULT_TIME_RANGE_PAST_DAYS.toString()
+            prefTimeRangePastDays.setSummary(R.string.settings_sync_time_range_past_none)
+        }
+        prefTimeRangePastDays.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, newValue ->
+            settings.timeRangePastDays = (newValue as String).trim().toIntOrNull()
+            loaderManager.restartLoader(0, arguments, this@AccountSettingsFragment)
+            false
+        }
     }
 
     override fun onLoaderReset(loader: Loader<AccountSettings>) {}
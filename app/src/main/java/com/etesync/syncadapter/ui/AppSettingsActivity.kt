@@ -16,6 +16,7 @@ import androidx.preference.*
 import at.bitfire.cert4android.CustomCertManager
 import com.etesync.syncadapter.App
 import com.etesync.syncadapter.BuildConfig
+import com.etesync.syncadapter.HttpClient
 import com.etesync.syncadapter.R
 import com.etesync.syncadapter.model.ServiceDB
 import com.etesync.syncadapter.model.Settings
@@ -85,6 +86,7 @@ class AppSettingsActivity : BaseActivity() {
             prefOverrideProxy.isChecked = settings.getBoolean(App.OVERRIDE_PROXY, false)
             prefOverrideProxy.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, newValue ->
                 settings.putBoolean(App.OVERRIDE_PROXY, newValue as Boolean)
+                HttpClient.invalidateBackgroundClients()
                 true
             }
 
@@ -110,6 +112,7 @@ class AppSettingsActivity : BaseActivity() {
                 }
 
                 settings.putString(App.OVERRIDE_PROXY_HOST, host)
+                HttpClient.invalidateBackgroundClients()
                 prefProxyHost.summary = host
                 true
             }
@@ -127,6 +130,7 @@ class AppSettingsActivity : BaseActivity() {
                 }
 
                 settings.putInt(App.OVERRIDE_PROXY_PORT, port)
+                HttpClient.invalidateBackgroundClients()
                 prefProxyPort.text = port.toString()
                 prefProxyPort.summary = port.toString()
                 true
@@ -173,6 +177,7 @@ class AppSettingsActivity : BaseActivity() {
 
         private fun setDistrustSystemCerts(distrust: Boolean) {
             settings.putBoolean(App.DISTRUST_SYSTEM_CERTIFICATES, distrust)
+            HttpClient.invalidateBackgroundClients()
         }
 
         private fun resetCertificates() {
@@ -36,6 +36,7 @@ import com.etesync.syncadapter.model.JournalEntity
 import com.etesync.syncadapter.model.ServiceDB
 import com.etesync.syncadapter.model.ServiceEntity
 import com.etesync.syncadapter.resource.LocalAddressBook
+import com.etesync.syncadapter.syncadapter.RecentSyncStats
 import org.acra.ACRA
 import org.apache.commons.lang3.exception.ExceptionUtils
 import org.apache.commons.lang3.text.WordUtils
@@ -195,6 +196,12 @@ class DebugInfoActivity : BaseActivity(), LoaderManager.LoaderCallbacks<String>
 
             report.append("\n")
 
+            report.append("SYNC STATISTICS\n")
+            for (stats in RecentSyncStats.get()) {
+                report.append(stats.format(context))
+            }
+            report.append("\n")
+
             report.append("SQLITE DUMP\n")
             val dbHelper = ServiceDB.OpenHelper(context)
             dbHelper.dump(report)
@@ -203,6 +210,7 @@ class DebugInfoActivity : BaseActivity(), LoaderManager.LoaderCallbacks<String>
 
             report.append("SERVICES DUMP\n")
             val data = (getContext().applicationContext as App).data
+            report.append("Data store creations: ").append(App.dataStoreCreations.get()).append("\n")
             for (serviceEntity in data.select(ServiceEntity::class.java).get()) {
                 report.append(serviceEntity.toString() + "\n")
             }
@@ -0,0 +1,107 @@
+package com.etesync.syncadapter.ui
+
+import android.util.LruCache
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.recyclerview.widget.RecyclerView
+import com.etesync.syncadapter.R
+import com.etesync.syncadapter.log.Logger
+import org.jetbrains.anko.doAsync
+import org.jetbrains.anko.uiThread
+import java.util.logging.Level
+
+/**
+ * RecyclerView adapter for a list of [count] journal entries or items, using the journal_viewer_list_item layout.
+ * The entries are loaded [PAGE_SIZE] at a time in the background the first time one of them is shown, and only
+ * the last [MAX_PAGES] pages are kept, so opening and scrolling take the same time and memory however long the
+ * list is. Rows are bound with a null entry while their page is loading.
+ */
+abstract class PagedEntriesAdapter<E>(private val count: Int) : RecyclerView.Adapter<PagedEntriesAdapter.ViewHolder>() {
+    class ViewHolder(v: View) : RecyclerView.ViewHolder(v)
+
+    private val pages = LruCache<Int, List<E>>(MAX_PAGES)
+    private val loading = HashSet<Int>()
+
+    var onEntryClick: ((E) -> Unit)? = null
+
+    /**
+     * Returns up to [limit] entries starting at [offset], called on a background thread unless [isInMemory].
+     */
+    protected abstract fun loadPage(offset: Int, limit: Int): List<E>
+
+    /**
+     * Whether the entries are already in memory, so [loadPage] is cheap enough to be called on the UI thread and
+     * rows are never bound without their entry.
+     */
+    protected open val isInMemory: Boolean
+        get() = false
+
+    protected abstract fun bindEntry(v: View, entry: E?)
+
+    override fun getItemCount(): Int {
+        return count
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+        val v = LayoutInflater.from(parent.context).inflate(R.layout.journal_viewer_list_item, parent, false)
+        val holder = ViewHolder(v)
+        v.setOnClickListener {
+            val position = holder.adapterPosition
+            if (position != RecyclerView.NO_POSITION) {
+                getEntry(position)?.let { onEntryClick?.invoke(it) }
+            }
+        }
+        return holder
+    }
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        bindEntry(holder.itemView, getEntry(position))
+    }
+
+    /**
+     * Returns the entry at [position], or null if its page is still loading.
+     */
+    fun getEntry(position: Int): E? {
+        val page = position / PAGE_SIZE
+        var entries = pages.get(page)
+        if (entries == null) {
+            if (!isInMemory) {
+                load(page)
+                return null
+            }
+            entries = loadPage(page * PAGE_SIZE, PAGE_SIZE)
+            pages.put(page, entries)
+        }
+        return entries.getOrNull(position % PAGE_SIZE)
+    }
+
+    private fun load(page: Int) {
+        if (!loading.add(page)) {
+            return
+        }
+
+        doAsync {
+            val entries = try {
+                loadPage(page * PAGE_SIZE, PAGE_SIZE)
+            } catch (e: Exception) {
+                Logger.log.log(Level.WARNING, "Couldn't load entries", e)
+                null
+            }
+            uiThread {
+                // Also on failure, so the page is loaded again the next time it's shown
+                loading.remove(page)
+                if (entries != null) {
+                    pages.put(page, entries)
+                    val start = page * PAGE_SIZE
+                    notifyItemRangeChanged(start, minOf(PAGE_SIZE, count - start))
+                }
+            }
+        }
+    }
+
+    companion object {
+        const val PAGE_SIZE = 50
+        private const val MAX_PAGES = 8
+    }
+}
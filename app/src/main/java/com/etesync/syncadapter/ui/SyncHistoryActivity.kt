@@ -0,0 +1,112 @@
+package com.etesync.syncadapter.ui
+
+import android.accounts.Account
+import android.content.Context
+import android.content.Intent
+import android.os.Bundle
+import android.view.Menu
+import android.view.MenuItem
+import android.widget.TextView
+import com.etesync.syncadapter.Constants.KEY_ACCOUNT
+import com.etesync.syncadapter.R
+import com.etesync.syncadapter.model.SyncHistory
+import org.jetbrains.anko.doAsync
+import org.jetbrains.anko.uiThread
+import java.text.DateFormat
+import java.util.*
+
+/**
+ * Shows the sync history of an account, or of one of its collections, with the average sync time per
+ * collection and app version so regressions stand out.
+ */
+class SyncHistoryActivity : BaseActivity() {
+    private lateinit var account: Account
+    private var collectionUid: String? = null
+    private lateinit var tvHistory: TextView
+    private var entries: List<SyncHistory.Entry> = emptyList()
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+
+        account = intent.extras!!.getParcelable(KEY_ACCOUNT)!!
+        collectionUid = intent.extras!!.getString(EXTRA_COLLECTION_UID)
+
+        setContentView(R.layout.activity_sync_history)
+        tvHistory = findViewById(R.id.text_history)
+        supportActionBar?.setDisplayHomeAsUpEnabled(true)
+
+        load()
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menuInflater.inflate(R.menu.activity_sync_history, menu)
+        return true
+    }
+
+    fun onExport(item: MenuItem) {
+        val intent = Intent(Intent.ACTION_SEND)
+        intent.type = "text/csv"
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sync_history_title) + " " + account.name)
+        intent.putExtra(Intent.EXTRA_TEXT, SyncHistory.export(entries))
+        startActivity(Intent.createChooser(intent, getString(R.string.sync_history_export)))
+    }
+
+    fun onClear(item: MenuItem) {
+        doAsync {
+            SyncHistory.getInstance(this@SyncHistoryActivity).clear(account.name)
+            uiThread {
+                load()
+            }
+        }
+    }
+
+    private fun load() {
+        doAsync {
+            val entries = SyncHistory.getInstance(this@SyncHistoryActivity).list(account.name, collectionUid)
+            val text = format(entries)
+            uiThread {
+                this@SyncHistoryActivity.entries = entries
+                tvHistory.text = text
+            }
+        }
+    }
+
+    private fun format(entries: List<SyncHistory.Entry>): String {
+        if (entries.isEmpty()) {
+            return getString(R.string.sync_history_empty)
+        }
+
+        val ret = StringBuilder()
+        ret.append(getString(R.string.sync_history_trends)).append("\n")
+        val groups = entries.groupBy { Pair(it.collectionUid, it.appVersion) }
+        for ((key, group) in groups) {
+            val name = group.first().collectionName ?: key.first
+            ret.append(String.format(Locale.getDefault(), "%-24.24s %-10.10s %4d syncs %7dms %5d pulled %5d pushed %3d failed\n",
+                    name, key.second, group.size, group.sumOf { it.millis } / group.size,
+                    group.sumOf { it.itemsPulled } / group.size, group.sumOf { it.itemsPushed } / group.size,
+                    group.count { it.error != null }))
+        }
+
+        ret.append("\n").append(getString(R.string.sync_history_entries)).append("\n")
+        val dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM)
+        for (entry in entries) {
+            ret.append(String.format(Locale.getDefault(), "%s %-24.24s %7dms +%d ~%d -%d in=%d out=%d",
+                    dateFormat.format(Date(entry.startTime)), entry.collectionName ?: entry.collectionUid, entry.millis,
+                    entry.numInserts, entry.numUpdates, entry.numDeletes, entry.bytesIn, entry.bytesOut))
+            entry.error?.let { ret.append(" ").append(it) }
+            ret.append("\n")
+        }
+        return ret.toString()
+    }
+
+    companion object {
+        private const val EXTRA_COLLECTION_UID = "collectionUid"
+
+        fun newIntent(context: Context, account: Account, collectionUid: String? = null): Intent {
+            val intent = Intent(context, SyncHistoryActivity::class.java)
+            intent.putExtra(KEY_ACCOUNT, account)
+            intent.putExtra(EXTRA_COLLECTION_UID, collectionUid)
+            return intent
+        }
+    }
+}
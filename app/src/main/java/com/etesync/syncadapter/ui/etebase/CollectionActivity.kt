@@ -121,9 +121,7 @@ class CollectionViewModel : ViewModel() {
         doAsync {
             val etebaseLocalCache = accountHolder.etebaseLocalCache
             val colMgr = accountHolder.colMgr
-            val cachedCollection = synchronized(etebaseLocalCache) {
-                etebaseLocalCache.collectionGet(colMgr, colUid)!!
-            }
+            val cachedCollection = etebaseLocalCache.collectionGet(colMgr, colUid)
             uiThread {
                 collection.value = cachedCollection
             }
@@ -137,24 +135,58 @@ class CollectionViewModel : ViewModel() {
         get() = collection.value
 }
 
+/**
+ * The summaries of the collection's items, most recently modified first, only those matching the [search] query
+ * while there is one.
+ */
 class ItemsViewModel : ViewModel() {
-    private val cachedItems = MutableLiveData<List<CachedItem>>()
+    private val cachedItems = MutableLiveData<List<ItemSummary>>()
+    // The items matching the search query, or all of them when not searching
+    private val shownItems = MutableLiveData<List<ItemSummary>>()
+    private var query = ""
 
     fun loadItems(accountCollectionHolder: AccountHolder, cachedCollection: CachedCollection) {
         doAsync {
             val col = cachedCollection.col
             val itemMgr = accountCollectionHolder.colMgr.getItemManager(col)
-            val items = accountCollectionHolder.etebaseLocalCache.itemList(itemMgr, col.uid, withDeleted = true)
+            val items = accountCollectionHolder.etebaseLocalCache.itemSummaryList(itemMgr, col.uid)
             uiThread {
                 cachedItems.value = items
+                // Keep showing the matches if we are searching
+                search(accountCollectionHolder, cachedCollection, query)
             }
         }
     }
 
-    fun observe(owner: LifecycleOwner, observer: (List<CachedItem>) -> Unit) =
+    fun search(accountCollectionHolder: AccountHolder, cachedCollection: CachedCollection, query: String) {
+        this.query = query
+        if (query.isBlank()) {
+            shownItems.value = cachedItems.value
+            return
+        }
+
+        doAsync {
+            val col = cachedCollection.col
+            val itemMgr = accountCollectionHolder.colMgr.getItemManager(col)
+            val uids = accountCollectionHolder.etebaseLocalCache.itemSearch(itemMgr, col.uid, query)
+            uiThread {
+                // Unless the query changed in the meantime
+                if (this@ItemsViewModel.query == query) {
+                    shownItems.value = cachedItems.value?.filter { it.uid in uids } ?: emptyList()
+                }
+            }
+        }
+    }
+
+    /** Observes all the items, regardless of the search query */
+    fun observe(owner: LifecycleOwner, observer: (List<ItemSummary>) -> Unit) =
             cachedItems.observe(owner, observer)
 
-    val value: List<CachedItem>?
+    /** Observes the items matching the search query, see [search] */
+    fun observeShown(owner: LifecycleOwner, observer: (List<ItemSummary>) -> Unit) =
+            shownItems.observe(owner, observer)
+
+    val value: List<ItemSummary>?
         get() = cachedItems.value
 }
 
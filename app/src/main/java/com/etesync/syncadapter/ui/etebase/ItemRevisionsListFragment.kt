@@ -20,11 +20,12 @@ import androidx.lifecycle.observe
 import com.etebase.client.FetchOptions
 import com.etesync.syncadapter.CachedCollection
 import com.etesync.syncadapter.CachedItem
+import com.etesync.syncadapter.ItemRevisionCache
 import com.etesync.syncadapter.R
 import com.etesync.syncadapter.ui.etebase.ListEntriesFragment.Companion.setItemView
+import org.jetbrains.anko.AnkoAsyncContext
 import org.jetbrains.anko.doAsync
 import org.jetbrains.anko.uiThread
-import java.util.*
 import java.util.concurrent.Future
 
 
@@ -53,15 +54,16 @@ class ItemRevisionsListFragment : ListFragment(), AdapterView.OnItemClickListene
 
         var restored = false
 
-        revisionsModel.loadRevisions(model.value!!, cachedCollection, cachedItem)
-        revisionsModel.observe(this) {
-            val entries = it.sortedByDescending { item ->
-                item.meta.mtime ?: 0
-            }
-            val listAdapter = EntriesListAdapter(requireContext(), cachedCollection)
-            setListAdapter(listAdapter)
+        val listAdapter = EntriesListAdapter(requireContext(), cachedCollection)
+        setListAdapter(listAdapter)
 
+        revisionsModel.loadRevisions(model.value!!, cachedCollection, cachedItem)
+        revisionsModel.observe(this) { entries ->
+            // Updated as pages arrive, so keep the adapter and the scroll position
+            listAdapter.setNotifyOnChange(false)
+            listAdapter.clear()
             listAdapter.addAll(entries)
+            listAdapter.notifyDataSetChanged()
 
             if(!restored && (state != null)) {
                 listView.onRestoreInstanceState(state)
@@ -100,7 +102,7 @@ class ItemRevisionsListFragment : ListFragment(), AdapterView.OnItemClickListene
 
             val item = getItem(position)!!
 
-            setItemView(v, cachedCollection.collectionType, item)
+            setItemView(v, item)
 
             /* FIXME: handle entry error:
             val entryError = data.select(EntryErrorEntity::class.java).where(EntryErrorEntity.ENTRY.eq(entryEntity)).limit(1).get().firstOrNull()
@@ -125,35 +127,108 @@ class ItemRevisionsListFragment : ListFragment(), AdapterView.OnItemClickListene
 }
 
 
+/**
+ * The revisions of an item, newest first. The ones cached on disk are shown right away, and only the newer ones
+ * (and the older ones an earlier load didn't get to) are fetched, updating the list after every page. The cache
+ * is written once, when the load is done or cancelled.
+ */
 class RevisionsViewModel : ViewModel() {
     private val revisions = MutableLiveData<List<CachedItem>>()
     private var asyncTask: Future<Unit>? = null
 
     fun loadRevisions(accountCollectionHolder: AccountHolder, cachedCollection: CachedCollection, cachedItem: CachedItem) {
         asyncTask = doAsync {
-            val ret = LinkedList<CachedItem>()
             val col = cachedCollection.col
             val itemManager = accountCollectionHolder.colMgr.getItemManager(col)
-            var iterator: String? = null
-            var done = false
-            while (!done) {
-                val chunk = itemManager.itemRevisions(cachedItem.item, FetchOptions().iterator(iterator).limit(30))
-                iterator = chunk.iterator
-                done = chunk.isDone
-
-                ret.addAll(chunk.data.map { CachedItem(it, it.meta, it.contentString) })
+            val etebaseLocalCache = accountCollectionHolder.etebaseLocalCache
+            val revisionCache = etebaseLocalCache.getRevisionCache(col.uid)
+            val itemUid = cachedItem.item.uid
+
+            val cached = etebaseLocalCache.withCollectionReadLock(col.uid) {
+                revisionCache.load(itemManager, itemUid)
+            }
+            val ret = ArrayList<CachedItem>(cached.revisions.map { CachedItem(it, it.meta) })
+            if (ret.isNotEmpty()) {
+                post(ret)
             }
 
-            uiThread {
-                revisions.value = ret
+            var isComplete = cached.isComplete
+            var iterator = cached.iterator
+            var changed = false
+            try {
+                if (ret.isNotEmpty()) {
+                    // Newer revisions, until we get to the newest one we have
+                    val knownEtags = ret.map { it.item.etag }.toHashSet()
+                    val newer = ArrayList<CachedItem>()
+                    var headIterator: String? = null
+                    var reachedKnown = false
+                    while (!reachedKnown) {
+                        val chunk = itemManager.itemRevisions(cachedItem.item, FetchOptions().iterator(headIterator).limit(PAGE_SIZE))
+                        for (revision in chunk.data) {
+                            if (revision.etag in knownEtags) {
+                                reachedKnown = true
+                                break
+                            }
+                            newer.add(CachedItem(revision, revision.meta))
+                        }
+                        if (!reachedKnown && chunk.isDone) {
+                            // None of what we have is in the history anymore, so what we just fetched is all of it
+                            ret.clear()
+                            isComplete = true
+                            break
+                        }
+                        headIterator = chunk.iterator
+                    }
+                    ret.addAll(0, newer)
+                    if (newer.isNotEmpty() || !reachedKnown) {
+                        changed = true
+                        post(ret)
+                    }
+                }
+
+                // Older revisions, from where we stopped the last time
+                while (!isComplete) {
+                    val chunk = itemManager.itemRevisions(cachedItem.item, FetchOptions().iterator(iterator).limit(PAGE_SIZE))
+                    iterator = chunk.iterator
+                    isComplete = chunk.isDone
+                    ret.addAll(chunk.data.map { CachedItem(it, it.meta) })
+                    changed = true
+                    post(ret)
+                }
+            } finally {
+                // Also when cancelled or failed, so the next load continues from here
+                if (changed) {
+                    etebaseLocalCache.withCollectionWriteLock(col.uid) {
+                        revisionCache.save(itemManager, itemUid, ItemRevisionCache.History(ret.map { it.item }, isComplete, iterator))
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Posts [items] sorted as they are shown, with their content decrypted here so the list doesn't do it on the
+     * UI thread.
+     */
+    private fun AnkoAsyncContext<RevisionsViewModel>.post(items: List<CachedItem>) {
+        val sorted = items.sortedByDescending { it.meta.mtime ?: 0 }
+        for (item in sorted) {
+            // Lazy, so only the first post of each revision decrypts it
+            item.content
+        }
+        uiThread {
+            revisions.value = sorted
+        }
+    }
+
     fun cancelLoad() {
         asyncTask?.cancel(true)
     }
 
     fun observe(owner: LifecycleOwner, observer: (List<CachedItem>) -> Unit) =
             revisions.observe(owner, observer)
-}
\ No newline at end of file
+
+    companion object {
+        private const val PAGE_SIZE = 30
+    }
+}
@@ -1,38 +1,43 @@
 package com.etesync.syncadapter.ui.etebase
 
-import android.content.Context
 import android.os.Bundle
 import android.os.Parcelable
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import android.widget.AdapterView
-import android.widget.ArrayAdapter
 import android.widget.ImageView
 import android.widget.TextView
-import androidx.fragment.app.ListFragment
+import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import androidx.fragment.app.commit
-import com.etesync.syncadapter.CachedCollection
+import androidx.recyclerview.widget.DividerItemDecoration
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.etesync.syncadapter.CachedItem
-import com.etesync.syncadapter.Constants
+import com.etesync.syncadapter.ItemSummary
 import com.etesync.syncadapter.R
+import com.etesync.syncadapter.ui.PagedEntriesAdapter
+import org.jetbrains.anko.doAsync
+import org.jetbrains.anko.uiThread
 import java.text.SimpleDateFormat
 
 
-class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
+class ListEntriesFragment : Fragment() {
+    private val model: AccountViewModel by activityViewModels()
     private val collectionModel: CollectionViewModel by activityViewModels()
     private val itemsModel: ItemsViewModel by activityViewModels()
     private var state: Parcelable? = null
 
+    private lateinit var recyclerView: RecyclerView
     private var emptyTextView: TextView? = null
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
-        val view = inflater.inflate(R.layout.journal_viewer_list, container, false)
+        val view = inflater.inflate(R.layout.entries_list, container, false)
 
-        //This is instead of setEmptyText() function because of Google bug
-        //See: https://code.google.com/p/android/issues/detail?id=21742
-        emptyTextView = view.findViewById<View>(android.R.id.empty) as TextView
+        recyclerView = view.findViewById(R.id.entries)
+        recyclerView.layoutManager = LinearLayoutManager(requireContext())
+        recyclerView.addItemDecoration(DividerItemDecoration(requireContext(), DividerItemDecoration.VERTICAL))
+        emptyTextView = view.findViewById<View>(R.id.empty) as TextView
 
         return view
     }
@@ -42,50 +47,66 @@ class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
 
         var restored = false
 
-        collectionModel.observe(this) { col ->
-            itemsModel.observe(this) {
-                val entries = it.sortedByDescending { item ->
-                    item.meta.mtime ?: 0
-                }
-                val listAdapter = EntriesListAdapter(requireContext(), col)
-                setListAdapter(listAdapter)
-
-                listAdapter.addAll(entries)
+        collectionModel.observe(this) {
+            itemsModel.observeShown(this) {
+                // Already sorted by the cache
+                val listAdapter = EntriesListAdapter(it)
+                listAdapter.onEntryClick = { summary -> showItem(summary) }
+                recyclerView.adapter = listAdapter
 
                 if(!restored && (state != null)) {
-                    listView.onRestoreInstanceState(state)
+                    recyclerView.layoutManager?.onRestoreInstanceState(state)
                     restored = true
                 }
 
                 emptyTextView!!.text = getString(R.string.journal_entries_list_empty)
+                emptyTextView!!.visibility = if (it.isEmpty()) View.VISIBLE else View.GONE
             }
         }
-
-        listView.onItemClickListener = this
     }
+
     override fun onPause() {
-        state = listView.onSaveInstanceState()
+        state = recyclerView.layoutManager?.onSaveInstanceState()
         super.onPause()
     }
 
-    override fun onItemClick(parent: AdapterView<*>, view: View, position: Int, id: Long) {
-        val item = listAdapter?.getItem(position) as CachedItem
-        activity?.supportFragmentManager?.commit {
-            replace(R.id.fragment_container, CollectionItemFragment.newInstance(item))
-            addToBackStack(EditCollectionFragment::class.java.name)
+    private fun showItem(summary: ItemSummary) {
+        val accountHolder = model.value ?: return
+        val col = collectionModel.value?.col ?: return
+        doAsync {
+            val itemMgr = accountHolder.colMgr.getItemManager(col)
+            val item = accountHolder.etebaseLocalCache.itemGet(itemMgr, col.uid, summary.uid)
+            uiThread {
+                if (item != null && isAdded) {
+                    parentFragmentManager.commit {
+                        replace(R.id.fragment_container, CollectionItemFragment.newInstance(item))
+                        addToBackStack(EditCollectionFragment::class.java.name)
+                    }
+                }
+            }
         }
     }
 
-    internal inner class EntriesListAdapter(context: Context, val cachedCollection: CachedCollection) : ArrayAdapter<CachedItem>(context, R.layout.journal_viewer_list_item) {
+    /**
+     * Pages over the summaries, which are small enough to be all kept by the [ItemsViewModel].
+     */
+    internal class EntriesListAdapter(private val summaries: List<ItemSummary>) : PagedEntriesAdapter<ItemSummary>(summaries.size) {
+        override val isInMemory: Boolean
+            get() = true
 
-        override fun getView(position: Int, _v: View?, parent: ViewGroup): View {
-            var v = _v
-            if (v == null)
-                v = LayoutInflater.from(context).inflate(R.layout.journal_viewer_list_item, parent, false)!!
+        override fun loadPage(offset: Int, limit: Int): List<ItemSummary> {
+            return summaries.subList(offset, minOf(offset + limit, summaries.size))
+        }
 
-            val item = getItem(position)!!
+        override fun bindEntry(v: View, entry: ItemSummary?) {
+            if (entry == null) {
+                (v.findViewById<View>(R.id.title) as TextView).text = null
+                (v.findViewById<View>(R.id.description) as TextView).text = null
+                (v.findViewById<View>(R.id.action) as ImageView).setImageDrawable(null)
+                return
+            }
 
-            setItemView(v, cachedCollection.collectionType, item)
+            setItemView(v, entry.title, entry.mtime, entry.isDeleted)
 
             /* FIXME: handle entry error:
             val entryError = data.select(EntryErrorEntity::class.java).where(EntryErrorEntity.ENTRY.eq(entryEntity)).limit(1).get().firstOrNull()
@@ -94,55 +115,25 @@ class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
                 errorIcon.visibility = View.VISIBLE
             }
              */
-
-            return v
         }
     }
 
     companion object {
         private val dateFormatter = SimpleDateFormat()
-        private fun getLine(content: String?, prefix: String): String? {
-            var content: String? = content ?: return null
-
-            val start = content!!.indexOf(prefix)
-            if (start >= 0) {
-                val end = content.indexOf("\n", start)
-                content = content.substring(start + prefix.length, end)
-            } else {
-                content = null
-            }
-            return content
+        fun setItemView(v: View, item: CachedItem) {
+            setItemView(v, ItemSummary.title(item.content), item.meta.mtime ?: 0, item.item.isDeleted)
         }
 
-        fun setItemView(v: View, collectionType: String, item: CachedItem) {
-
+        fun setItemView(v: View, title: String?, mtime: Long, isDeleted: Boolean) {
             var tv = v.findViewById<View>(R.id.title) as TextView
-
-            // FIXME: hacky way to make it show sensible info
-            val prefix: String = when (collectionType) {
-                Constants.ETEBASE_TYPE_CALENDAR, Constants.ETEBASE_TYPE_TASKS -> {
-                    "SUMMARY:"
-                }
-                Constants.ETEBASE_TYPE_ADDRESS_BOOK -> {
-                    "FN:"
-                }
-                else -> {
-                    ""
-                }
-            }
-
-            val fullContent = item.content
-            var content = getLine(fullContent, prefix)
-            content = content ?: "Not found"
-            tv.text = content
+            tv.text = title ?: "Not found"
 
             tv = v.findViewById<View>(R.id.description) as TextView
             // FIXME: Don't use a hard-coded string
-            content = "Modified: ${dateFormatter.format(item.meta.mtime ?: 0)}"
-            tv.text = content
+            tv.text = "Modified: ${dateFormatter.format(mtime)}"
 
             val action = v.findViewById<View>(R.id.action) as ImageView
-            if (item.item.isDeleted) {
+            if (isDeleted) {
                 action.setImageResource(R.drawable.action_delete)
             } else {
                 action.setImageResource(R.drawable.action_change)
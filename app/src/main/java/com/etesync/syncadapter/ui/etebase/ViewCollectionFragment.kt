@@ -6,6 +6,7 @@ import android.view.*
 import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
+import androidx.appcompat.widget.SearchView
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import androidx.fragment.app.commit
@@ -15,6 +16,7 @@ import com.etesync.syncadapter.Constants
 import com.etesync.syncadapter.R
 import com.etesync.syncadapter.resource.LocalCalendar
 import com.etesync.syncadapter.ui.BaseActivity
+import com.etesync.syncadapter.ui.SyncHistoryActivity
 import com.etesync.syncadapter.ui.WebViewActivity
 import com.etesync.syncadapter.utils.HintManager
 import com.etesync.syncadapter.utils.ShowcaseBuilder
@@ -25,6 +27,7 @@ import java.util.*
 class ViewCollectionFragment : Fragment() {
     private val collectionModel: CollectionViewModel by activityViewModels()
     private val itemsModel: ItemsViewModel by activityViewModels()
+    private val model: AccountViewModel by activityViewModels()
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
         val ret = inflater.inflate(R.layout.view_collection_fragment, container, false)
@@ -106,6 +109,37 @@ class ViewCollectionFragment : Fragment() {
     override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
         super.onCreateOptionsMenu(menu, inflater)
         inflater.inflate(R.menu.fragment_view_collection, menu)
+
+        val searchItem = menu.findItem(R.id.on_search)
+        val searchView = searchItem.actionView as SearchView
+        searchView.setOnQueryTextListener(object : SearchView.OnQueryTextListener {
+            override fun onQueryTextSubmit(query: String): Boolean {
+                search(query)
+                return true
+            }
+
+            override fun onQueryTextChange(newText: String): Boolean {
+                search(newText)
+                return true
+            }
+        })
+        searchItem.setOnActionExpandListener(object : MenuItem.OnActionExpandListener {
+            override fun onMenuItemActionExpand(item: MenuItem): Boolean {
+                return true
+            }
+
+            override fun onMenuItemActionCollapse(item: MenuItem): Boolean {
+                // Show all the items again
+                search("")
+                return true
+            }
+        })
+    }
+
+    private fun search(query: String) {
+        val accountHolder = model.value ?: return
+        val cachedCollection = collectionModel.value ?: return
+        itemsModel.search(accountHolder, cachedCollection, query)
     }
 
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
@@ -137,6 +171,12 @@ class ViewCollectionFragment : Fragment() {
                     addToBackStack(null)
                 }
             }
+            R.id.on_sync_history -> {
+                val account = model.value?.account
+                if (account != null) {
+                    startActivity(SyncHistoryActivity.newIntent(requireContext(), account, cachedCollection.col.uid))
+                }
+            }
             R.id.on_import -> {
                 if (cachedCollection.col.accessLevel != CollectionAccessLevel.ReadOnly) {
                     parentFragmentManager.commit {
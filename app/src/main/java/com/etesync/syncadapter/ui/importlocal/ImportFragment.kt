@@ -16,6 +16,7 @@ import at.bitfire.vcard4android.BatchOperation
 import at.bitfire.vcard4android.Contact
 import at.bitfire.vcard4android.ContactsStorageException
 import com.etesync.syncadapter.CachedCollection
+import com.etesync.syncadapter.HttpClient
 import com.etesync.syncadapter.Constants.*
 import com.etesync.syncadapter.R
 import com.etesync.syncadapter.log.Logger
@@ -304,7 +305,7 @@ class ImportFragment : DialogFragment() {
                 } else if (enumType == CollectionInfo.Type.ADDRESS_BOOK) {
                     val uidToLocalId = HashMap<String?, Long>()
                     val downloader = ContactsSyncManager.ResourceDownloader(context)
-                    val contacts = Contact.fromReader(importReader, downloader)
+                    val contacts = HttpClient.useBackgroundClients { Contact.fromReader(importReader, downloader) }
 
                     if (contacts.isEmpty()) {
                         Logger.log.warning("Empty/invalid file.")
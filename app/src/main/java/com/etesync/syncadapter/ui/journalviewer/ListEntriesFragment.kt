@@ -9,34 +9,38 @@
 package com.etesync.syncadapter.ui.journalviewer
 
 import android.accounts.Account
-import android.content.Context
 import android.os.Bundle
+import android.os.Parcelable
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import android.widget.AdapterView
-import android.widget.ArrayAdapter
 import android.widget.ImageView
 import android.widget.TextView
-import androidx.fragment.app.ListFragment
+import androidx.fragment.app.Fragment
+import androidx.recyclerview.widget.DividerItemDecoration
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.etesync.journalmanager.model.SyncEntry
 import com.etesync.syncadapter.App
 import com.etesync.syncadapter.R
 import com.etesync.syncadapter.model.*
 import com.etesync.syncadapter.ui.JournalItemActivity
+import com.etesync.syncadapter.ui.PagedEntriesAdapter
 import com.etesync.syncadapter.ui.ViewCollectionActivity
 import org.jetbrains.anko.doAsync
 import org.jetbrains.anko.uiThread
 import java.util.concurrent.Future
 
-class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
+class ListEntriesFragment : Fragment() {
 
     private lateinit var data: MyEntityDataStore
     private lateinit var account: Account
     private lateinit var info: CollectionInfo
     private var journalEntity: JournalEntity? = null
     private var asyncTask: Future<Unit>? = null
+    private var state: Parcelable? = null
 
+    private lateinit var recyclerView: RecyclerView
     private var emptyTextView: TextView? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -48,36 +52,46 @@ class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
         requireActivity().title = info.displayName
-        val view = inflater.inflate(R.layout.journal_viewer_list, container, false)
+        val view = inflater.inflate(R.layout.entries_list, container, false)
 
-        //This is instead of setEmptyText() function because of Google bug
-        //See: https://code.google.com/p/android/issues/detail?id=21742
-        emptyTextView = view.findViewById<View>(android.R.id.empty) as TextView
+        recyclerView = view.findViewById(R.id.entries)
+        recyclerView.layoutManager = LinearLayoutManager(requireContext())
+        recyclerView.addItemDecoration(DividerItemDecoration(requireContext(), DividerItemDecoration.VERTICAL))
+        emptyTextView = view.findViewById<View>(R.id.empty) as TextView
         return view
     }
 
-    fun loadEntries(): List<EntryEntity> {
+    /**
+     * Returns the number of entries, the entries themselves are loaded by the [EntriesListAdapter] as needed.
+     */
+    fun countEntries(): Int {
         journalEntity = JournalModel.Journal.fetch(data, info.getServiceEntity(data), info.uid)
-        return data.select(EntryEntity::class.java).where(EntryEntity.JOURNAL.eq(journalEntity)).orderBy(EntryEntity.ID.desc()).get().toList()
+        return data.count(EntryEntity::class.java).where(EntryEntity.JOURNAL.eq(journalEntity)).get().value()
     }
 
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
 
         asyncTask = doAsync {
-            val entries = loadEntries()
+            val count = countEntries()
 
             uiThread {
-                val listAdapter = EntriesListAdapter(requireContext())
-                setListAdapter(listAdapter)
-
-                listAdapter.addAll(entries)
+                val listAdapter = EntriesListAdapter(journalEntity!!, count)
+                listAdapter.onEntryClick = { entry ->
+                    startActivity(JournalItemActivity.newIntent(requireContext(), account, info, entry.content))
+                }
+                recyclerView.adapter = listAdapter
+                state?.let { recyclerView.layoutManager?.onRestoreInstanceState(it) }
 
                 emptyTextView!!.text = getString(R.string.journal_entries_list_empty)
+                emptyTextView!!.visibility = if (count == 0) View.VISIBLE else View.GONE
             }
         }
+    }
 
-        listView.onItemClickListener = this
+    override fun onPause() {
+        state = recyclerView.layoutManager?.onSaveInstanceState()
+        super.onPause()
     }
 
     override fun onDestroyView() {
@@ -86,31 +100,40 @@ class ListEntriesFragment : ListFragment(), AdapterView.OnItemClickListener {
             asyncTask!!.cancel(true)
     }
 
-    override fun onItemClick(parent: AdapterView<*>, view: View, position: Int, id: Long) {
-        val entry = listAdapter?.getItem(position) as EntryEntity
-        startActivity(JournalItemActivity.newIntent(requireContext(), account, info, entry.content))
-    }
-
-    internal inner class EntriesListAdapter(context: Context) : ArrayAdapter<EntryEntity>(context, R.layout.journal_viewer_list_item) {
+    /**
+     * An entry and whether applying it failed.
+     */
+    class EntryRow(val content: SyncEntry, val hasError: Boolean)
+
+    internal inner class EntriesListAdapter(private val journalEntity: JournalEntity, count: Int) : PagedEntriesAdapter<EntryRow>(count) {
+        override fun loadPage(offset: Int, limit: Int): List<EntryRow> {
+            val entries = data.select(EntryEntity::class.java).where(EntryEntity.JOURNAL.eq(journalEntity))
+                    .orderBy(EntryEntity.ID.desc()).limit(limit).offset(offset).get().toList()
+            if (entries.isEmpty()) {
+                return emptyList()
+            }
 
-        override fun getView(position: Int, _v: View?, parent: ViewGroup): View {
-            var v = _v
-            if (v == null)
-                v = LayoutInflater.from(context).inflate(R.layout.journal_viewer_list_item, parent, false)!!
+            // One query for the errors of the whole page instead of one per row
+            val withErrors = data.select(EntryErrorEntity::class.java).where(EntryErrorEntity.ENTRY.`in`(entries))
+                    .get().map { it.entry.id }.toHashSet()
+            return entries.map { EntryRow(it.content, it.id in withErrors) }
+        }
 
-            val entryEntity = getItem(position)
+        override fun bindEntry(v: View, entry: EntryRow?) {
+            val errorIcon = v.findViewById<View>(R.id.error) as ImageView
+            if (entry == null) {
+                (v.findViewById<View>(R.id.title) as TextView).text = null
+                (v.findViewById<View>(R.id.description) as TextView).text = null
+                (v.findViewById<View>(R.id.action) as ImageView).setImageDrawable(null)
+                errorIcon.visibility = View.GONE
+                return
+            }
 
             // FIXME: hacky way to make it show sensible info
-            val info = journalEntity!!.info
-            setJournalEntryView(v, info, entryEntity!!.content)
-
-            val entryError = data.select(EntryErrorEntity::class.java).where(EntryErrorEntity.ENTRY.eq(entryEntity)).limit(1).get().firstOrNull()
-            if (entryError != null) {
-                val errorIcon = v.findViewById<View>(R.id.error) as ImageView
-                errorIcon.visibility = View.VISIBLE
-            }
+            val info = journalEntity.info
+            setJournalEntryView(v, info, entry.content)
 
-            return v
+            errorIcon.visibility = if (entry.hasError) View.VISIBLE else View.GONE
         }
     }
 
@@ -0,0 +1,90 @@
+package com.etesync.syncadapter
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class EtebaseLocalCacheTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    @Test
+    fun testItemIndexRoundTrip() {
+        val file = File(tmp.root, "index")
+        val index = ItemIndex(file)
+        index.set("a", "etag-a")
+        index.set("b", "etag b with spaces")
+        index.update(mapOf("c" to "etag-c", "a" to "etag-a2", "d" to null))
+        index.unset("b")
+
+        val loaded = ItemIndex(file)
+        assertEquals(mapOf("a" to "etag-a2", "c" to "etag-c"), loaded.entries())
+        assertNull(loaded.get("b"))
+        assertFalse(loaded.isEmpty())
+    }
+
+    @Test
+    fun testItemIndexSetAll() {
+        val file = File(tmp.root, "index")
+        ItemIndex(file).setAll(mapOf("a" to "1", "b" to "2"))
+
+        assertEquals(mapOf("a" to "1", "b" to "2"), ItemIndex(file).entries())
+        assertFalse(File(tmp.root, "index.tmp").exists())
+    }
+
+    @Test
+    fun testItemIndexUnchangedNotAppended() {
+        val file = File(tmp.root, "index")
+        val index = ItemIndex(file)
+        index.set("a", "1")
+        index.set("a", "1")
+        index.update(mapOf("a" to "1", "missing" to null))
+
+        assertEquals(1, file.readLines().size)
+    }
+
+    @Test
+    fun testItemIndexCompacts() {
+        val file = File(tmp.root, "index")
+        val index = ItemIndex(file)
+        for (i in 0 until 500) {
+            index.set("a", i.toString())
+        }
+        index.set("b", "b")
+        assertEquals(501, file.readLines().size)
+
+        val loaded = ItemIndex(file)
+        assertEquals(mapOf("a" to "499", "b" to "b"), loaded.entries())
+        assertEquals(2, file.readLines().size)
+    }
+
+    @Test
+    fun testItemIndexMissingFile() {
+        val index = ItemIndex(File(tmp.root, "missing"))
+        assertTrue(index.isEmpty())
+        assertTrue(index.entries().isEmpty())
+    }
+
+    @Test
+    fun testItemSummaryTitle() {
+        assertEquals("Jane Doe", ItemSummary.title("BEGIN:VCARD\r\nVERSION:4.0\r\nFN:Jane Doe\r\nEND:VCARD\r\n"))
+        assertEquals("Meeting", ItemSummary.title("BEGIN:VCALENDAR\nBEGIN:VEVENT\nSUMMARY:Meeting\nEND:VEVENT\nEND:VCALENDAR"))
+        assertEquals("Last line", ItemSummary.title("BEGIN:VEVENT\nSUMMARY:Last line"))
+        assertNull(ItemSummary.title("BEGIN:VCARD\r\nVERSION:4.0\r\nEND:VCARD\r\n"))
+    }
+
+    @Test
+    fun testItemSummaryValue() {
+        val summary = ItemSummary.fromValue("uid", ItemSummary("uid", "A title", 1234, true).toValue())
+        assertEquals("uid", summary.uid)
+        assertEquals("A title", summary.title)
+        assertEquals(1234L, summary.mtime)
+        assertTrue(summary.isDeleted)
+
+        val untitled = ItemSummary.fromValue("uid", ItemSummary("uid", null, 1, false).toValue())
+        assertNull(untitled.title)
+        assertFalse(untitled.isDeleted)
+    }
+}
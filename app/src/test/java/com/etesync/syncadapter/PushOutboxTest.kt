@@ -0,0 +1,66 @@
+package com.etesync.syncadapter
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class PushOutboxTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    @Test
+    fun testPrepareAndCommit() {
+        val dir = File(tmp.root, "outbox")
+        val outbox = PushOutbox(dir)
+        assertTrue(outbox.isEmpty())
+
+        outbox.prepare("item1", byteArrayOf(1, 2, 3), "digest1")
+        outbox.prepare("item2", byteArrayOf(4), null)
+
+        var entries = outbox.entries().associateBy { it.itemUid }
+        assertFalse(outbox.isEmpty())
+        assertEquals(setOf("item1", "item2"), entries.keys)
+        assertFalse(entries.getValue("item1").committed)
+        assertEquals("digest1", entries.getValue("item1").contentDigest)
+        assertNull(entries.getValue("item2").contentDigest)
+
+        outbox.commit("item1", "digest1")
+        entries = outbox.entries().associateBy { it.itemUid }
+        assertTrue(entries.getValue("item1").committed)
+        assertEquals("digest1", entries.getValue("item1").contentDigest)
+        assertFalse(entries.getValue("item2").committed)
+
+        // Only the final files are left behind
+        assertTrue(dir.list()!!.none { it.endsWith(".tmp") })
+        assertArrayEquals(byteArrayOf(1, 2, 3), File(dir, "item1.item").readBytes())
+    }
+
+    @Test
+    fun testRemove() {
+        val outbox = PushOutbox(File(tmp.root, "outbox"))
+        outbox.prepare("item1", byteArrayOf(1), "digest1")
+        outbox.remove("item1")
+
+        assertTrue(outbox.isEmpty())
+        assertTrue(outbox.entries().isEmpty())
+    }
+
+    @Test
+    fun testStateWithoutItemIgnored() {
+        val dir = File(tmp.root, "outbox")
+        val outbox = PushOutbox(dir)
+        outbox.prepare("item1", byteArrayOf(1), "digest1")
+        File(dir, "item1.item").delete()
+
+        assertTrue(outbox.entries().isEmpty())
+    }
+
+    @Test
+    fun testMissingDir() {
+        val outbox = PushOutbox(File(tmp.root, "missing"))
+        assertTrue(outbox.isEmpty())
+        assertTrue(outbox.entries().isEmpty())
+    }
+}
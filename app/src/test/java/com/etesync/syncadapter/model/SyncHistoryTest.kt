@@ -0,0 +1,125 @@
+package com.etesync.syncadapter.model
+
+import android.app.Application
+import com.etesync.syncadapter.R
+import com.etesync.syncadapter.syncadapter.SyncStats
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28], application = Application::class)
+class SyncHistoryTest {
+    private val accountName = "test@example.com"
+
+    private lateinit var history: SyncHistory
+
+    @Before
+    fun setUp() {
+        history = SyncHistory(RuntimeEnvironment.getApplication())
+    }
+
+    private fun entry(startTime: Long, collectionUid: String = "col", error: String? = null): SyncHistory.Entry {
+        return SyncHistory.Entry(
+                accountName = accountName,
+                authority = "com.android.contacts",
+                collectionUid = collectionUid,
+                collectionName = "Contacts",
+                appVersion = "1.0",
+                startTime = startTime,
+                endTime = startTime + 1500,
+                itemsPulled = 10,
+                itemsPushed = 2,
+                numInserts = 3,
+                numUpdates = 4,
+                numDeletes = 5,
+                bytesIn = 1024,
+                bytesOut = 256,
+                numIoExceptions = 0,
+                numParseExceptions = 1,
+                numAuthExceptions = 0,
+                error = error
+        )
+    }
+
+    @Test
+    fun testRecordAndList() {
+        val now = System.currentTimeMillis()
+        history.record(entry(now - 2000, "col1"))
+        history.record(entry(now - 1000, "col2"))
+
+        val all = history.list(accountName)
+        assertEquals(listOf("col2", "col1"), all.map { it.collectionUid })
+        assertEquals(1024L, all[0].bytesIn)
+        assertEquals(1500L, all[0].millis)
+
+        assertEquals(listOf("col1"), history.list(accountName, "col1").map { it.collectionUid })
+        assertTrue(history.list("other@example.com").isEmpty())
+    }
+
+    @Test
+    fun testPruneMaxRows() {
+        val start = System.currentTimeMillis() - SyncHistory.MAX_ROWS - 10
+        for (i in 0 until SyncHistory.MAX_ROWS + 10) {
+            history.record(entry(start + i))
+        }
+
+        val all = history.list(accountName)
+        assertEquals(SyncHistory.MAX_ROWS, all.size)
+        // The oldest ones are dropped
+        assertEquals(start + SyncHistory.MAX_ROWS + 9, all.first().startTime)
+        assertEquals(start + 10, all.last().startTime)
+    }
+
+    @Test
+    fun testPruneMaxAge() {
+        val now = System.currentTimeMillis()
+        history.record(entry(now - SyncHistory.MAX_AGE - 60000, "old"))
+        history.record(entry(now - SyncHistory.MAX_AGE + 60000, "recent"))
+        history.record(entry(now, "new"))
+
+        assertEquals(listOf("new", "recent"), history.list(accountName).map { it.collectionUid })
+    }
+
+    @Test
+    fun testClear() {
+        history.record(entry(System.currentTimeMillis()))
+        history.clear(accountName)
+        assertTrue(history.list(accountName).isEmpty())
+    }
+
+    @Test
+    fun testExport() {
+        val csv = SyncHistory.export(listOf(entry(1000), entry(2000, error = "Failed, twice\nand more")))
+        val lines = csv.split("\n")
+
+        assertEquals(4, lines.size)
+        assertEquals("start,millis,authority,collection,version,pulled,pushed,inserts,updates,deletes,bytes_in,bytes_out,io_errors,parse_errors,auth_errors,error", lines[0])
+        assertEquals("1000,1500,com.android.contacts,col,1.0,10,2,3,4,5,1024,256,0,1,0,", lines[1])
+        assertEquals("2000,1500,com.android.contacts,col,1.0,10,2,3,4,5,1024,256,0,1,0,Failed  twice and more", lines[2])
+        assertEquals("", lines[3])
+        for (line in lines.dropLast(1)) {
+            assertEquals(15, line.count { it == ',' })
+        }
+    }
+
+    @Test
+    fun testEntryBytesIn() {
+        val stats = SyncStats(accountName, "com.android.contacts", "col")
+        stats.phase(R.string.sync_phase_fetch_entries).let {
+            it.items = 3
+            it.bytesIn = 4096
+        }
+        stats.phase(R.string.sync_phase_apply_remote_entries).items = 3
+        stats.phase(R.string.sync_phase_push_entries).bytesOut = 512
+
+        val entry = SyncHistory.entry(stats)
+        assertEquals(4096L, entry.bytesIn)
+        assertEquals(512L, entry.bytesOut)
+        assertEquals(3, entry.itemsPulled)
+    }
+}
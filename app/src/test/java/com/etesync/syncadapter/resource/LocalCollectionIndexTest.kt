@@ -0,0 +1,76 @@
+package com.etesync.syncadapter.resource
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LocalCollectionIndexTest {
+    private fun index(): LocalCollectionIndex {
+        val index = LocalCollectionIndex()
+        index.add(LocalCollectionIndex.Entry(1, "file1", "uid1", "etag1"))
+        index.add(LocalCollectionIndex.Entry(2, "file2", "uid2", "etag2"))
+        // The file name of one resource may be the UID of another
+        index.add(LocalCollectionIndex.Entry(3, "uid1", "uid3", null, LocalCollectionIndex.TYPE_GROUP))
+        return index
+    }
+
+    @Test
+    fun testLookup() {
+        val index = index()
+        assertEquals(3, index.size)
+        assertEquals(1L, index.getByFileName("file1")?.id)
+        assertEquals(1L, index.getByUid("uid1")?.id)
+        assertEquals(3L, index.getByFileName("uid1")?.id)
+        assertEquals(LocalCollectionIndex.TYPE_GROUP, index.getByUid("uid3")?.type)
+        assertNull(index.getByFileName("missing"))
+        assertFalse(index.isStaleFileName("file1"))
+        assertFalse(index.isStaleUid("uid1"))
+    }
+
+    @Test
+    fun testLaterEntriesWin() {
+        val index = index()
+        index.add(LocalCollectionIndex.Entry(4, "file2", "uid2", "etag4"))
+        assertEquals(4L, index.getByFileName("file2")?.id)
+        assertEquals(4L, index.getByUid("uid2")?.id)
+    }
+
+    @Test
+    fun testInvalidateFileName() {
+        val index = index()
+        index.invalidateFileName("file1")
+
+        // Both keys of the resource are stale, but not the other resource using the same string
+        assertTrue(index.isStaleFileName("file1"))
+        assertTrue(index.isStaleUid("uid1"))
+        assertNull(index.getByFileName("file1"))
+        assertNull(index.getByUid("uid1"))
+        assertFalse(index.isStaleFileName("uid1"))
+        assertEquals(3L, index.getByFileName("uid1")?.id)
+        assertEquals(2L, index.getByFileName("file2")?.id)
+    }
+
+    @Test
+    fun testInvalidateUid() {
+        val index = index()
+        index.invalidateUid("uid3")
+
+        assertTrue(index.isStaleUid("uid3"))
+        assertTrue(index.isStaleFileName("uid1"))
+        assertNull(index.getByFileName("uid1"))
+        assertFalse(index.isStaleUid("uid1"))
+        assertEquals(1L, index.getByUid("uid1")?.id)
+    }
+
+    @Test
+    fun testInvalidateUnknown() {
+        val index = index()
+        index.invalidateFileName("new-file")
+        index.invalidateUid("new-uid")
+
+        // Resources added since the index was built
+        assertTrue(index.isStaleFileName("new-file"))
+        assertTrue(index.isStaleUid("new-uid"))
+        assertFalse(index.isStaleUid("new-file"))
+        assertEquals(3, index.size)
+    }
+}
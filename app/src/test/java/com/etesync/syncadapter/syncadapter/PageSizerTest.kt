@@ -0,0 +1,87 @@
+package com.etesync.syncadapter.syncadapter
+
+import android.app.Application
+import android.content.Context
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28], application = Application::class)
+class PageSizerTest {
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = RuntimeEnvironment.getApplication()
+    }
+
+    @Test
+    fun testDefaultWithinBounds() {
+        assertEquals(500, PageSizer(context, "large", 1000, 10, 500, Long.MAX_VALUE).size)
+        assertEquals(10, PageSizer(context, "small", 1, 10, 500, Long.MAX_VALUE).size)
+        assertEquals(50, PageSizer(context, "default", 50, 10, 500, Long.MAX_VALUE).size)
+    }
+
+    @Test
+    fun testFastPagesGrowUpToMax() {
+        val sizer = PageSizer(context, "fast", 50, 10, 500, Long.MAX_VALUE)
+        sizer.onPage(50, 50, 5000, 100)
+        // At most doubles per page
+        assertEquals(100, sizer.size)
+
+        for (i in 0 until 10) {
+            sizer.onPage(sizer.size, sizer.size, sizer.size * 100L, 100)
+        }
+        assertEquals(500, sizer.size)
+    }
+
+    @Test
+    fun testSlowPagesShrinkDownToMin() {
+        val sizer = PageSizer(context, "slow", 200, 10, 500, Long.MAX_VALUE)
+        sizer.onPage(200, 200, 20000, 60000)
+        // At most halves per page
+        assertEquals(100, sizer.size)
+
+        for (i in 0 until 10) {
+            sizer.onPage(sizer.size, sizer.size, sizer.size * 100L, 60000)
+        }
+        assertEquals(10, sizer.size)
+    }
+
+    @Test
+    fun testPartialPageDoesntGrow() {
+        val sizer = PageSizer(context, "partial", 50, 10, 500, Long.MAX_VALUE)
+        sizer.onPage(50, 20, 2000, 1)
+        assertEquals(50, sizer.size)
+
+        // Nor do empty ones change anything
+        sizer.onPage(50, 0, 0, 1)
+        assertEquals(50, sizer.size)
+    }
+
+    @Test
+    fun testByteBudget() {
+        val sizer = PageSizer(context, "budget", 50, 1, 500, 10000)
+        sizer.onPage(50, 50, 50 * 1000L, 2000)
+        assertEquals(10, sizer.size)
+    }
+
+    @Test
+    fun testOutOfMemoryIsSaved() {
+        val sizer = PageSizer(context, "oom", 100, 10, 500, Long.MAX_VALUE)
+        sizer.onOutOfMemory()
+        assertEquals(50, sizer.size)
+
+        assertEquals(50, PageSizer(context, "oom", 100, 10, 500, Long.MAX_VALUE).size)
+        // Not below the minimum
+        for (i in 0 until 10) {
+            sizer.onOutOfMemory()
+        }
+        assertEquals(10, sizer.size)
+    }
+}
@@ -0,0 +1,104 @@
+package com.etesync.syncadapter.syncadapter
+
+import com.etesync.syncadapter.resource.LocalResource
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Executors
+
+class SyncManagerTest {
+    private class TestResource(override var fileName: String?, override var uuid: String?) : LocalResource<Any> {
+        override val isLocalOnly: Boolean
+            get() = fileName == null
+
+        override val content: String
+            get() = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:$uuid\r\nFN:Test\r\nEND:VCARD\r\n"
+
+        override fun delete(): Int = 0
+
+        override fun legacyPrepareForUpload(fileName: String?) {}
+
+        override fun prepareForUpload(fileName: String, uid: String) {
+            this.fileName = fileName
+            this.uuid = uid
+        }
+
+        override fun clearDirty(eTag: String?) {}
+
+        override fun resetDeleted() {}
+    }
+
+    private val executor = Executors.newFixedThreadPool(2)
+
+    @After
+    fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun testSerializeForPushIncludesNewUid() {
+        val new = TestResource(null, null)
+        val existing = TestResource("existing", "existing-uid")
+
+        val contents = SyncManager.serializeForPush(executor, listOf(new, existing)) { local ->
+            if (local.fileName == null) {
+                local.prepareForUpload("new-file", "new-uid")
+                true
+            } else {
+                false
+            }
+        }
+
+        assertEquals(2, contents.size)
+        assertTrue(contents[0].prepared)
+        assertTrue(contents[0].content.contains("UID:new-uid"))
+        assertEquals(SyncManager.contentDigest(new.content), contents[0].digest)
+        assertFalse(contents[1].prepared)
+        assertTrue(contents[1].content.contains("UID:existing-uid"))
+    }
+
+    @Test
+    fun testContentDigestIgnoresVolatileProperties() {
+        val content = "BEGIN:VCALENDAR\r\nPRODID:-//Test 1//EN\r\nBEGIN:VEVENT\r\nUID:1\r\nDTSTAMP:20200101T000000Z\r\n" +
+                "SUMMARY:Meeting\r\nEND:VEVENT\r\nEND:VCALENDAR\r\n"
+        val regenerated = "BEGIN:VCALENDAR\r\nPRODID:-//Test 2//EN\r\nBEGIN:VEVENT\r\nUID:1\r\nDTSTAMP;VALUE=DATE-TIME:20210101T000000Z\r\n" +
+                "SUMMARY:Meeting\r\nEND:VEVENT\r\nEND:VCALENDAR\r\n"
+        assertEquals(SyncManager.contentDigest(content), SyncManager.contentDigest(regenerated))
+
+        val vcard = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:1\r\nFN:Test\r\nREV:20200101T000000Z\r\nEND:VCARD\r\n"
+        val vcardRegenerated = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:1\r\nFN:Test\r\nREV:20210101T000000Z\r\nEND:VCARD\r\n"
+        assertEquals(SyncManager.contentDigest(vcard), SyncManager.contentDigest(vcardRegenerated))
+    }
+
+    @Test
+    fun testContentDigestIgnoresFoldedVolatileProperties() {
+        val content = "BEGIN:VCALENDAR\r\nPRODID:-//A very long\r\n  product id//EN\r\nEND:VCALENDAR\r\n"
+        val other = "BEGIN:VCALENDAR\r\nPRODID:-//Another\r\n  one//EN\r\nEND:VCALENDAR\r\n"
+        assertEquals(SyncManager.contentDigest(content), SyncManager.contentDigest(other))
+    }
+
+    @Test
+    fun testContentDigestDetectsChanges() {
+        val content = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:1\r\nFN:Test\r\nEND:VCARD\r\n"
+        val changed = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:1\r\nFN:Other\r\nEND:VCARD\r\n"
+        // Properties that only start with the name of a volatile one are still part of the digest
+        val similar = "BEGIN:VCARD\r\nVERSION:4.0\r\nUID:1\r\nFN:Test\r\nREVIEWED:yes\r\nEND:VCARD\r\n"
+        assertNotEquals(SyncManager.contentDigest(content), SyncManager.contentDigest(changed))
+        assertNotEquals(SyncManager.contentDigest(content), SyncManager.contentDigest(similar))
+        assertEquals(SyncManager.contentDigest(content), SyncManager.contentDigest(content))
+    }
+
+    @Test
+    fun testParallelMapKeepsOrder() {
+        val values = (1..100).toList()
+        assertEquals(values.map { it * 2 }, SyncManager.parallelMap(executor, values) { it * 2 })
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testParallelMapRethrows() {
+        SyncManager.parallelMap(executor, listOf(1, 2, 3)) { value ->
+            check(value != 2)
+            value
+        }
+    }
+}